@@ -0,0 +1,148 @@
+package gitlet;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/* Runs many commands in one process.  gitlet batch [--checkpoint N] [FILE]
+   reads commands from FILE, or else standard input, one per line, and runs
+   each as Main would, but against a single CommitTree that is saved every
+   N commands and at the end rather than after every command.  A line is
+   split into words at white space, where single and double quotes and
+   backslashes group and escape as in a shell; blank lines and lines
+   starting with # are skipped.  If a command fails, the batch stops there
+   and its changes since the last checkpoint are not saved. */
+class Batch {
+
+    static void run(String[] options) {
+        int checkpoint = 0;
+        String fileName = null;
+        try {
+            for (int i = 0; i < options.length; i += 1) {
+                if (options[i].equals("--checkpoint")) {
+                    checkpoint = Integer.parseInt(options[++i]);
+                    if (checkpoint <= 0) {
+                        throw new NumberFormatException();
+                    }
+                } else if (fileName == null) {
+                    fileName = options[i];
+                } else {
+                    throw new NumberFormatException();
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException excp) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        PrintStream stdout = System.out;
+        try (BufferedReader in = fileName == null ? new BufferedReader(new InputStreamReader(System.in))
+                : Files.newBufferedReader(Paths.get(fileName))) {
+            System.setOut(new PrintStream(new BufferedOutputStream(stdout, Utils.BUFFER_SIZE), false));
+            run(in, checkpoint);
+        } catch (NoSuchFileException excp) {
+            System.out.println("File does not exist.");
+        } catch (IOException excp) {
+            System.out.println("Cannot read " + (fileName == null ? "standard input" : fileName) + ".");
+        } finally {
+            System.out.flush();
+            System.setOut(stdout);
+        }
+    }
+
+    /* Runs the commands read from IN, saving every CHECKPOINT commands if
+       that is positive. */
+    private static void run(BufferedReader in, int checkpoint) throws IOException {
+        Main.setBatch(true);
+        boolean failed = false;
+        try {
+            int line = 0;
+            int unsaved = 0;
+            for (String text = in.readLine(); text != null; text = in.readLine()) {
+                line += 1;
+                if (text.isBlank() || text.strip().startsWith("#")) {
+                    continue;
+                }
+                String[] args = words(text);
+                if (args == null) {
+                    System.out.println("Unterminated quote at line " + line + ".");
+                    break;
+                }
+                try {
+                    Main.run(args);
+                } catch (RuntimeException excp) {
+                    System.out.println("Stopped at line " + line + ": " + excp
+                            + ". Changes since the last checkpoint were not saved.");
+                    failed = true;
+                    break;
+                }
+                unsaved += 1;
+                if (unsaved == checkpoint) {
+                    Main.checkpoint();
+                    unsaved = 0;
+                }
+                if (!in.ready()) {
+                    System.out.flush();
+                }
+            }
+        } finally {
+            if (failed) {
+                Main.abandonBatch();
+            } else {
+                Main.setBatch(false);
+            }
+        }
+    }
+
+    /* Returns the words of LINE, or null if it has an unterminated quote. */
+    static String[] words(String line) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = null;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (quote == '\'') {
+                if (c == '\'') {
+                    quote = 0;
+                } else {
+                    word.append(c);
+                }
+            } else if (c == '\\' && i + 1 < line.length()
+                    && (quote == 0 || line.charAt(i + 1) == '"' || line.charAt(i + 1) == '\\')) {
+                word = word == null ? new StringBuilder() : word;
+                i += 1;
+                word.append(line.charAt(i));
+            } else if (quote == '"') {
+                if (c == '"') {
+                    quote = 0;
+                } else {
+                    word.append(c);
+                }
+            } else if (Character.isWhitespace(c)) {
+                if (word != null) {
+                    words.add(word.toString());
+                    word = null;
+                }
+            } else {
+                word = word == null ? new StringBuilder() : word;
+                if (c == '\'' || c == '"') {
+                    quote = c;
+                } else {
+                    word.append(c);
+                }
+            }
+        }
+        if (quote != 0) {
+            return null;
+        }
+        if (word != null) {
+            words.add(word.toString());
+        }
+        return words.toArray(new String[0]);
+    }
+}
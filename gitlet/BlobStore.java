@@ -0,0 +1,362 @@
+package gitlet;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/* Content-addressed storage for file contents.  Each blob is deflated and
+   kept at .gitlet/blobs/<first two hex digits>/<remaining 38>, so no single
+   directory grows with the total number of blobs.  repack moves loose blobs
+   into a PackFile under .gitlet/blobs/pack; reads look in both places.
+   The packs are listed once, and listed again before a blob is given up
+   as missing, since another process may have repacked, deleting the
+   loose blobs and old packs this one knew of.
+   Blobs are streamed in and out through fixed-size buffers, so memory use
+   does not depend on file size.  Loose blobs are written to a temporary
+   file and renamed into place, so several threads may store blobs at once. */
+public class BlobStore {
+    /* Blobs larger than this are never stored as deltas. */
+    static final int DELTA_LIMIT = 1 << 24;
+    /* Where gc keeps when each unreachable blob it has not yet deleted was
+       written. */
+    static final String GRACE_FILE = "grace";
+
+    private File directory;
+    private File packDir;
+    private List<PackFile> packs;
+
+    BlobStore(File directory) {
+        this.directory = directory;
+        packDir = new File(directory, "pack");
+        directory.mkdirs();
+    }
+
+    public File objectFile(ObjectId id) {
+        String name = id.name();
+        return new File(new File(directory, name.substring(0, 2)), name.substring(2));
+    }
+
+    public boolean contains(ObjectId id) {
+        return objectFile(id).isFile() || packWith(id) != null;
+    }
+
+    /* Stores the contents of FILE unless they are already present and
+       returns their id, reading FILE once. */
+    public ObjectId put(File file) {
+        try {
+            return put(new FileInputStream(file));
+        } catch (FileNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* Stores everything read from IN, which is closed afterwards, unless it is
+       already present and returns its id. */
+    public ObjectId put(InputStream in) {
+        File temp = tempFile(directory);
+        MessageDigest md = Utils.sha1Digest();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (InputStream input = in;
+             OutputStream out = new DeflaterOutputStream(new FileOutputStream(temp), deflater, Utils.BUFFER_SIZE)) {
+            byte[] buffer = new byte[Utils.BUFFER_SIZE];
+            int n;
+            while ((n = input.read(buffer)) > 0) {
+                md.update(buffer, 0, n);
+                out.write(buffer, 0, n);
+            }
+        } catch (IOException excp) {
+            md.reset();
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            deflater.end();
+        }
+        ObjectId id = ObjectId.fromRaw(md.digest(), 0);
+        if (contains(id)) {
+            temp.delete();
+        } else {
+            moveInto(temp, id);
+        }
+        return id;
+    }
+
+    /* Returns a stream of the uncompressed contents of the blob ID. */
+    public InputStream open(ObjectId id) {
+        for (int attempt = 0; attempt < 2; attempt += 1) {
+            File file = objectFile(id);
+            try {
+                if (file.isFile()) {
+                    return new InflaterInputStream(new BufferedInputStream(new FileInputStream(file),
+                            Utils.BUFFER_SIZE));
+                }
+            } catch (FileNotFoundException excp) {
+                /* Packed since we looked; fall through to the packs. */
+            }
+            for (PackFile pack : attempt == 0 ? packs() : rescan()) {
+                try {
+                    InputStream in = pack.open(id);
+                    if (in != null) {
+                        return in;
+                    }
+                } catch (IllegalArgumentException excp) {
+                    if (pack.packFile().isFile()) {
+                        throw excp;
+                    }
+                    /* Repacked away since we listed it. */
+                }
+            }
+        }
+        throw new IllegalArgumentException("missing blob " + id);
+    }
+
+    /* Returns the uncompressed contents of the blob ID, or null if they are
+       longer than LIMIT bytes. */
+    public byte[] get(ObjectId id, int limit) {
+        try (InputStream in = open(id)) {
+            byte[] content = in.readNBytes(limit);
+            return in.read() < 0 ? content : null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* Writes the contents of the blob ID to TARGET, replacing it. */
+    public void writeTo(ObjectId id, File target) {
+        try (ReadableByteChannel in = Channels.newChannel(open(id));
+             FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            long n;
+            while ((n = out.transferFrom(in, position, Utils.BUFFER_SIZE)) > 0) {
+                position += n;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* Copies the blob ID into OTHER, which must not be this store. */
+    public void copyTo(BlobStore other, ObjectId id) {
+        if (other.contains(id)) {
+            return;
+        }
+        File file = objectFile(id);
+        if (file.isFile()) {
+            File temp = tempFile(other.directory);
+            try {
+                Files.copy(file.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException excp) {
+                temp.delete();
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            other.moveInto(temp, id);
+        } else {
+            other.put(open(id));
+        }
+    }
+
+    /* Returns the ids of all loose blobs. */
+    public List<ObjectId> looseIds() {
+        List<ObjectId> ids = new ArrayList<>();
+        File[] fanout = directory.listFiles();
+        if (fanout == null) {
+            return ids;
+        }
+        for (File dir : fanout) {
+            List<String> names = dir.getName().length() == 2 ? Utils.plainFilenamesIn(dir) : null;
+            if (names != null) {
+                for (String name : names) {
+                    if (ObjectId.isId(dir.getName() + name)) {
+                        ids.add(ObjectId.fromString(dir.getName() + name));
+                    }
+                }
+            }
+        }
+        return ids;
+    }
+
+    /* Writes every blob into a single new pack, storing each blob in CHAINS
+       as a delta against the one before it when that saves space, and then
+       removes the loose copies and old packs.  Returns the number of blobs
+       packed and the number stored as deltas. */
+    public int[] repack(List<List<ObjectId>> chains) {
+        return repack(chains, null, 0);
+    }
+
+    /* Repacks as above, but packs only the blobs in LIVE, unless that is
+       null.  Any other blob written at or after CUTOFF, in milliseconds, is
+       packed too; the rest are deleted.  When such a blob was written is
+       kept in GRACE_FILE, as the times of the files themselves change when
+       they are packed, and may be shared with other repositories that
+       linked them in when cloning.  Returns the number of blobs packed, the
+       number stored as deltas and the number deleted. */
+    public int[] repack(List<List<ObjectId>> chains, Set<ObjectId> live, long cutoff) {
+        Set<ObjectId> remaining = new TreeSet<>(looseIds());
+        for (PackFile pack : rescan()) {
+            remaining.addAll(pack.ids());
+        }
+        int pruned = 0;
+        if (live != null) {
+            File graceFile = new File(directory, GRACE_FILE);
+            @SuppressWarnings("unchecked")
+            HashMap<ObjectId, Long> written = graceFile.isFile()
+                    ? Utils.readObject(graceFile, HashMap.class) : new HashMap<>();
+            HashMap<ObjectId, Long> grace = new HashMap<>();
+            for (Iterator<ObjectId> i = remaining.iterator(); i.hasNext(); ) {
+                ObjectId id = i.next();
+                if (live.contains(id)) {
+                    continue;
+                }
+                long time = written.containsKey(id) ? written.get(id) : modified(id);
+                if (time >= cutoff) {
+                    grace.put(id, time);
+                } else {
+                    i.remove();
+                    pruned += 1;
+                }
+            }
+            if (grace.isEmpty()) {
+                graceFile.delete();
+            } else {
+                Utils.writeObject(graceFile, grace);
+            }
+        }
+        PackFile pack = null;
+        int[] result = {0, 0, pruned};
+        if (!remaining.isEmpty()) {
+            PackFile.Writer writer = new PackFile.Writer(packDir);
+            Map<ObjectId, Integer> depths = new HashMap<>();
+            for (List<ObjectId> chain : chains) {
+                ObjectId previousId = null;
+                byte[] previous = null;
+                for (ObjectId id : chain) {
+                    if (!remaining.remove(id)) {
+                        previousId = null;
+                        previous = null;
+                        continue;
+                    }
+                    byte[] content = get(id, DELTA_LIMIT);
+                    if (content == null) {
+                        writer.addFull(id, open(id));
+                        previousId = null;
+                        previous = null;
+                        continue;
+                    }
+                    byte[] delta = null;
+                    if (previous != null && depths.get(previousId) < PackFile.MAX_DEPTH) {
+                        delta = Delta.create(previous, content);
+                    }
+                    if (delta != null && delta.length < content.length / 2) {
+                        writer.addDelta(id, previousId, delta);
+                        depths.put(id, depths.get(previousId) + 1);
+                    } else {
+                        writer.addFull(id, new ByteArrayInputStream(content));
+                        depths.put(id, 0);
+                    }
+                    previousId = id;
+                    previous = content;
+                }
+            }
+            for (ObjectId id : remaining) {
+                writer.addFull(id, open(id));
+            }
+            pack = writer.finish();
+            result[0] = writer.size();
+            result[1] = writer.deltas();
+        }
+        for (PackFile old : packs()) {
+            if (pack == null || !old.indexFile().equals(pack.indexFile())) {
+                old.indexFile().delete();
+                old.packFile().delete();
+            }
+        }
+        for (ObjectId id : looseIds()) {
+            File file = objectFile(id);
+            file.delete();
+            file.getParentFile().delete();
+        }
+        packs = pack == null ? new ArrayList<>() : new ArrayList<>(List.of(pack));
+        return result;
+    }
+
+    /* Returns when the blob ID was written, in milliseconds: the time of its
+       loose file, or else of the pack holding it. */
+    private long modified(ObjectId id) {
+        File file = objectFile(id);
+        if (file.isFile()) {
+            return file.lastModified();
+        }
+        PackFile pack = packWith(id);
+        return pack == null ? 0 : pack.packFile().lastModified();
+    }
+
+    /* Returns the pack holding the blob ID, or null if none does, listing
+       the packs again before giving up. */
+    private PackFile packWith(ObjectId id) {
+        for (int attempt = 0; attempt < 2; attempt += 1) {
+            for (PackFile pack : attempt == 0 ? packs() : rescan()) {
+                if (pack.contains(id)) {
+                    return pack;
+                }
+            }
+        }
+        return null;
+    }
+
+    private synchronized List<PackFile> packs() {
+        return packs == null ? rescan() : packs;
+    }
+
+    /* Lists the packs in packDir again, keeping those already open. */
+    private synchronized List<PackFile> rescan() {
+        Map<File, PackFile> known = new HashMap<>();
+        for (PackFile pack : packs == null ? List.<PackFile>of() : packs) {
+            known.put(pack.indexFile(), pack);
+        }
+        List<PackFile> found = new ArrayList<>();
+        List<String> names = Utils.plainFilenamesIn(packDir);
+        for (String name : names == null ? List.<String>of() : names) {
+            File indexFile = new File(packDir, name);
+            if (!name.endsWith(".idx")) {
+                continue;
+            }
+            try {
+                found.add(known.containsKey(indexFile) ? known.get(indexFile) : new PackFile(indexFile));
+            } catch (IllegalArgumentException excp) {
+                if (indexFile.isFile()) {
+                    throw excp;
+                }
+                /* Deleted by a repack since it was listed. */
+            }
+        }
+        packs = found;
+        return found;
+    }
+
+    private static File tempFile(File dir) {
+        try {
+            return File.createTempFile("tmp-", null, dir);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private void moveInto(File temp, ObjectId id) {
+        File file = objectFile(id);
+        file.getParentFile().mkdirs();
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package gitlet;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/* Bloom filters over strings, held as plain byte arrays so that they can be
+   stored as they are.  A filter answers "definitely not present" or "maybe
+   present".  Keys are hashed with two seeded MurmurHash3 values combined by
+   double hashing, so filters written by one run are read the same way by
+   the next.  An empty filter contains nothing; a filter whose every bit is
+   set, used when there are too many keys to be worth filtering, contains
+   everything. */
+class BloomFilter {
+    static final int BITS_PER_KEY = 10;
+    static final int HASHES = 7;
+    static final int MAX_KEYS = 512;
+    private static final int SEED1 = 0x293ae76f;
+    private static final int SEED2 = 0x7e646e2c;
+
+    /* Returns a filter holding KEYS. */
+    static byte[] create(Collection<String> keys) {
+        if (keys.size() > MAX_KEYS) {
+            return new byte[]{(byte) 0xff};
+        }
+        byte[] filter = new byte[(keys.size() * BITS_PER_KEY + 7) / 8];
+        for (String key : keys) {
+            int[] hashes = hashes(key);
+            for (int i = 0; i < HASHES; i += 1) {
+                int bit = bit(hashes, i, filter.length);
+                filter[bit >>> 3] |= 1 << (bit & 7);
+            }
+        }
+        return filter;
+    }
+
+    /* Returns false if KEY is certainly not in FILTER. */
+    static boolean mightContain(byte[] filter, String key) {
+        if (filter.length == 0) {
+            return false;
+        }
+        int[] hashes = hashes(key);
+        for (int i = 0; i < HASHES; i += 1) {
+            int bit = bit(hashes, i, filter.length);
+            if ((filter[bit >>> 3] & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] hashes(String key) {
+        byte[] data = key.getBytes(StandardCharsets.UTF_8);
+        return new int[]{murmur3(data, SEED1), murmur3(data, SEED2)};
+    }
+
+    private static int bit(int[] hashes, int i, int bytes) {
+        return Integer.remainderUnsigned(hashes[0] + i * hashes[1], bytes * 8);
+    }
+
+    @SuppressWarnings("fallthrough")
+    private static int murmur3(byte[] data, int seed) {
+        int hash = seed;
+        int blocks = data.length / 4;
+        for (int i = 0; i < blocks; i += 1) {
+            int k = (data[4 * i] & 0xff) | (data[4 * i + 1] & 0xff) << 8
+                    | (data[4 * i + 2] & 0xff) << 16 | (data[4 * i + 3] & 0xff) << 24;
+            hash ^= mix(k);
+            hash = Integer.rotateLeft(hash, 13) * 5 + 0xe6546b64;
+        }
+        int k = 0;
+        int tail = blocks * 4;
+        switch (data.length & 3) {
+            case 3:
+                k ^= (data[tail + 2] & 0xff) << 16;
+                /* fall through */
+            case 2:
+                k ^= (data[tail + 1] & 0xff) << 8;
+                /* fall through */
+            case 1:
+                k ^= data[tail] & 0xff;
+                hash ^= mix(k);
+                /* fall through */
+            default:
+                break;
+        }
+        hash ^= data.length;
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    private static int mix(int k) {
+        k *= 0xcc9e2d51;
+        k = Integer.rotateLeft(k, 15);
+        return k * 0x1b873593;
+    }
+}
@@ -0,0 +1,186 @@
+package gitlet;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/* Copies one repository's objects and state into another for clone, in
+   this process.  Commits, trees, blobs and packs are never changed once
+   written, so each is hard-linked when the two repositories share a file
+   system and copied with FileChannel.transferTo, which leaves moving the
+   bytes to the kernel, when they do not.  Objects are copied on
+   Utils.pool(), pack indexes only after every pack so that a pack is never
+   found before its data, and the state files last, so the clone's
+   references appear only once everything they refer to has.  Each file is
+   written under a temporary name and renamed into place, so an interrupted
+   clone leaves no partial object behind.  The source repository stays
+   locked throughout, so its state files all come from the same moment.
+
+   While a terminal is watching, progress is shown on standard error and a
+   summary with the throughput is printed when the clone is done. */
+class Cloner {
+    private static final String[] OBJECT_DIRS = {"commits", "trees", "blobs"};
+    private static final String[] STATE_FILES = {
+        CommitTree.STATE_FILE, "commit-graph", "commit-graph-journal", "message-index", "message-journal"
+    };
+    /* Nanoseconds between progress reports. */
+    private static final long PROGRESS_INTERVAL = 250_000_000L;
+
+    private final Path source;
+    private final Path target;
+    /* False once a hard link has failed, after which everything is copied. */
+    private volatile boolean linking = true;
+
+    private long files;
+    private long linked;
+    private long bytes;
+    private long total;
+    private final long start = System.nanoTime();
+    private long lastReport = start;
+    private boolean shown;
+
+    private Cloner(File source, File target) {
+        this.source = source.toPath();
+        this.target = target.toPath();
+    }
+
+    /* Copies the repository in the .gitlet directory SOURCE into the one in
+       TARGET. */
+    static void copy(File source, File target) {
+        RepositoryLock lock = RepositoryLock.acquire(source);
+        try {
+            new Cloner(source, target).run();
+        } finally {
+            lock.close();
+        }
+    }
+
+    private void run() {
+        List<Path> objects = new ArrayList<>();
+        List<Path> indexes = new ArrayList<>();
+        for (String dir : OBJECT_DIRS) {
+            for (Path path : list(source.resolve(dir))) {
+                (path.toString().endsWith(".idx") ? indexes : objects).add(path);
+            }
+        }
+        total = objects.size() + indexes.size();
+        Utils.parallelForEachOrdered(objects, this::copyObject, this::count);
+        Utils.parallelForEachOrdered(indexes, this::copyObject, this::count);
+        for (String name : STATE_FILES) {
+            Path file = source.resolve(name);
+            if (Files.isRegularFile(file)) {
+                copyFile(file, target.resolve(name));
+            }
+        }
+        report(true);
+    }
+
+    /* Returns the relative paths of the files under DIR, leaving out
+       temporary files that another command may still be writing, whether
+       made here or by Utils.writeContents. */
+    private List<Path> list(Path dir) {
+        if (!Files.isDirectory(dir)) {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> walk = Files.walk(dir)) {
+            return walk.filter(Files::isRegularFile)
+                    .filter(path -> !isTemporary(path.getFileName().toString()))
+                    .map(source::relativize)
+                    .collect(Collectors.toList());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("cannot read " + dir + ": " + excp.getMessage());
+        }
+    }
+
+    /* Returns true if NAME is that of a temporary file. */
+    private static boolean isTemporary(String name) {
+        return name.startsWith("tmp-") || (name.startsWith(".") && name.endsWith(".tmp"));
+    }
+
+    /* Links or copies the object at PATH, relative to both repositories, and
+       returns its size, negated if it was linked. */
+    private Long copyObject(Path path) {
+        Path from = source.resolve(path);
+        Path to = target.resolve(path);
+        try {
+            Files.createDirectories(to.getParent());
+            long size = Files.size(from);
+            if (Files.exists(to)) {
+                return 0L;
+            }
+            if (linking) {
+                try {
+                    Files.createLink(to, from);
+                    return -size;
+                } catch (FileAlreadyExistsException excp) {
+                    return 0L;
+                } catch (IOException | UnsupportedOperationException | SecurityException excp) {
+                    linking = false;
+                }
+            }
+            copyFile(from, to);
+            return size;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("cannot copy " + from + ": " + excp.getMessage());
+        }
+    }
+
+    /* Copies FROM to TO through a temporary file beside TO. */
+    private static void copyFile(Path from, Path to) {
+        File temp = null;
+        try {
+            temp = File.createTempFile("tmp-", null, to.getParent().toFile());
+            try (FileChannel in = FileChannel.open(from, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+                long size = in.size();
+                for (long done = 0; done < size; ) {
+                    done += in.transferTo(done, size - done, out);
+                }
+            }
+            Files.move(temp.toPath(), to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            if (temp != null) {
+                temp.delete();
+            }
+            throw new IllegalArgumentException("cannot copy " + from + ": " + excp.getMessage());
+        }
+    }
+
+    /* Records an object of SIZE bytes, negative if it was linked. */
+    private void count(Long size) {
+        files += 1;
+        if (size < 0) {
+            linked += 1;
+        }
+        bytes += Math.abs(size);
+        report(false);
+    }
+
+    /* Shows progress if it is time to, or the summary if DONE. */
+    private void report(boolean done) {
+        long now = System.nanoTime();
+        if (System.console() == null || (!done && now - lastReport < PROGRESS_INTERVAL)) {
+            return;
+        }
+        lastReport = now;
+        double seconds = Math.max(now - start, 1) / 1e9;
+        String rate = String.format("%.1f MB, %.1f MB/s", bytes / 1e6, bytes / 1e6 / seconds);
+        if (!done) {
+            shown = true;
+            System.err.printf("\rCopying objects: %d%% (%d/%d), %s", 100 * files / total, files, total, rate);
+            return;
+        }
+        if (shown) {
+            System.err.println();
+        }
+        System.out.printf("Cloned %d objects (%d linked), %s in %.2f s.%n", files, linked, rate, seconds);
+    }
+}
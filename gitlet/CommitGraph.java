@@ -0,0 +1,754 @@
+package gitlet;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+/* The shape of the commit history, kept apart from the commits themselves
+   so that ancestry questions never deserialize a CommitNode.  Each commit
+   has a position; the graph records the positions of its parents, its
+   commit time and its generation number, which is one more than the
+   largest generation of its parents (1 for a root).  A commit's ancestors
+   all have smaller generations, so walks stop as soon as they pass below
+   the generation of the commit they are looking for.
+
+   The graph is saved in .gitlet/commit-graph, but it is only a cache: a
+   commit that is missing from it, such as one fetched or cloned in, is read
+   from the commits directory, with its ancestors, the first time it is
+   asked about.  The file also records the modification time of the commits
+   directory when the graph last held every commit in it.  Until the
+   directory changes again, an id prefix can be resolved from the graph
+   alone; once it has, the directory is searched as well.  A command that
+   stores commits holds the repository lock, so if the graph held every
+   commit before it stored its own, it still does after, and the new time
+   is recorded.  As with StatCache, a recorded time that is not older than
+   the file itself is not trusted, since another commit could have arrived
+   within the same timestamp tick; nor is one within the last second when
+   it is found by searching the directory without the lock.
+
+   Each commit may also carry a BloomFilter of the paths it changed relative
+   to its first parent, directories included, so that path-limited history
+   can pass over most commits without reading their trees.
+
+   Saving does not rewrite the file.  What changed since it was written is
+   appended to .gitlet/commit-graph-journal, whose positions follow on from
+   the file's; once the journal holds more than an eighth as many records
+   as the file holds commits, the two are sorted into a new file.  Each
+   file is written with a random stamp and the journal starts with the
+   stamp of the file it extends, so a journal left over from an older file
+   is ignored.
+
+   File:     "GCGR" version, stamp, the recorded time of the commits
+             directory (-1 if none), count, the sorted 20-byte ids, then per
+             commit the positions of its two parents (-1 for none), its
+             generation, its commit time in seconds and the offset of its
+             changed-path filter (-1 for none); then the filters, each an
+             int length and its bytes.
+   Journal:  "GCGJ" and the stamp of the file, then records, each a type
+             byte and: for a commit added, its 20-byte id, its parents'
+             positions, generation and time as above; for a filter, the
+             position, an int length and the bytes; for a new recorded
+             time, the time. */
+public class CommitGraph {
+    private static final int MAGIC = 0x47434752;
+    private static final int JOURNAL_MAGIC = 0x4743474a;
+    private static final int VERSION = 4;
+    private static final int HEADER = 4 + 4 + 8 + 8 + 4;
+    private static final int ENTRY = 4 + 4 + 4 + 8 + 4;
+    private static final int MIN_JOURNAL = 256;
+    private static final byte ADDED = 1;
+    private static final byte FILTERED = 2;
+    private static final byte COVERED = 3;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final byte OURS = 1;
+    private static final byte THEIRS = 2;
+    static final int MIN_PREFIX = 4;
+    /* Milliseconds a directory time must be in the past to be trusted. */
+    private static final long RACY_INTERVAL = 1000;
+
+    private File file;
+    private File journalFile;
+    private File commitsDir;
+    private Map<ObjectId, Integer> positions;
+    private ObjectId[] ids;
+    private int[] firstParents;
+    private int[] secondParents;
+    private int[] generations;
+    private long[] times;
+    private int[] filterOffsets;
+    private byte[][] filters;
+    private ByteBuffer filterData;
+    private int size;
+    private int sorted;
+    private long complete = -1;
+    private boolean trusted;
+    private boolean dirty;
+    /* The stamp of the file this graph was read from or last wrote, or 0. */
+    private long stamp;
+    /* The length of the journal as read or last written, and the number of
+       commits and filters it holds. */
+    private long journalLength;
+    private int journalRecords;
+    /* Commits at positions from here on, the filters set at the positions
+       in newFilters and, unless it equals savedComplete, the recorded time
+       are not yet saved. */
+    private int journaled;
+    private SortedSet<Integer> newFilters = new TreeSet<>();
+    private long savedComplete;
+    /* Set once positions have changed, so the journal cannot be used. */
+    private boolean rewrite;
+
+    CommitGraph(File file, File commitsDir) {
+        this.file = file;
+        this.commitsDir = commitsDir;
+        journalFile = new File(file.getParentFile(), "commit-graph-journal");
+        positions = new HashMap<>();
+        allocate(16);
+        long written = -1;
+        if (file.isFile()) {
+            written = file.lastModified();
+            read(ByteBuffer.wrap(Utils.readContents(file)));
+        }
+        if (stamp != 0 && journalFile.isFile()) {
+            written = Math.max(written, journalFile.lastModified());
+            replay(ByteBuffer.wrap(Utils.readContents(journalFile)));
+        }
+        trusted = complete >= 0 && complete < written;
+        journaled = size;
+        savedComplete = complete;
+    }
+
+    private void read(ByteBuffer data) {
+        if (data.remaining() < HEADER || data.getInt() != MAGIC || data.getInt() != VERSION) {
+            return;
+        }
+        long tableStamp = data.getLong();
+        long covered = data.getLong();
+        int count = data.getInt();
+        if (data.remaining() < (long) count * (ObjectId.LENGTH + ENTRY)) {
+            return;
+        }
+        allocate(Math.max(16, count));
+        byte[] raw = new byte[ObjectId.LENGTH];
+        for (int i = 0; i < count; i += 1) {
+            data.get(raw);
+            ids[i] = ObjectId.fromRaw(raw, 0);
+            positions.put(ids[i], i);
+        }
+        for (int i = 0; i < count; i += 1) {
+            firstParents[i] = data.getInt();
+            secondParents[i] = data.getInt();
+            generations[i] = data.getInt();
+            times[i] = data.getLong();
+            filterOffsets[i] = data.getInt();
+        }
+        filterData = data.slice();
+        size = count;
+        sorted = count;
+        complete = covered;
+        stamp = tableStamp;
+    }
+
+    /* Applies the records of the journal DATA, stopping at the first one
+       that is cut short or does not fit the graph. */
+    private void replay(ByteBuffer data) {
+        if (data.remaining() < 12 || data.getInt() != JOURNAL_MAGIC || data.getLong() != stamp) {
+            return;
+        }
+        journalLength = data.position();
+        byte[] raw = new byte[ObjectId.LENGTH];
+        while (data.hasRemaining()) {
+            byte type = data.get();
+            if (type == ADDED && data.remaining() >= ObjectId.LENGTH + 4 + 4 + 4 + 8) {
+                data.get(raw);
+                ObjectId id = ObjectId.fromRaw(raw, 0);
+                int firstParent = data.getInt();
+                int secondParent = data.getInt();
+                if (positions.containsKey(id) || firstParent >= size || secondParent >= size) {
+                    return;
+                }
+                put(id, firstParent, secondParent, data.getInt(), data.getLong());
+                journalRecords += 1;
+            } else if (type == FILTERED && data.remaining() >= 4 + 4) {
+                int position = data.getInt();
+                int length = data.getInt();
+                if (position < 0 || position >= size || length < 0 || length > data.remaining()) {
+                    return;
+                }
+                filters[position] = new byte[length];
+                data.get(filters[position]);
+                journalRecords += 1;
+            } else if (type == COVERED && data.remaining() >= 8) {
+                complete = data.getLong();
+            } else {
+                return;
+            }
+            journalLength = data.position();
+        }
+    }
+
+    /* Saves what has changed since the graph was read.  It is appended to
+       the journal unless the journal has grown large or the files are no
+       longer the ones this graph was read from, in which case the graph is
+       written out whole. */
+    void save() {
+        if (!dirty) {
+            return;
+        }
+        int pending = size - journaled + newFilters.size();
+        if (rewrite || journalRecords + pending > Math.max(MIN_JOURNAL, sorted / 8) || !current()) {
+            writeTable();
+        } else {
+            appendJournal();
+        }
+        dirty = false;
+    }
+
+    /* Returns true if the file and journal are as this graph last read or
+       wrote them.  Every new file has a new stamp, and the journal only
+       grows until a new file replaces it. */
+    private boolean current() {
+        if (stamp == 0 || journalFile.length() != journalLength) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC && in.readInt() == VERSION && in.readLong() == stamp;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    private void appendJournal() {
+        int length = journalLength == 0 ? 12 : 0;
+        length += (size - journaled) * (1 + ObjectId.LENGTH + 4 + 4 + 4 + 8);
+        for (int i : newFilters) {
+            length += 1 + 4 + 4 + filters[i].length;
+        }
+        length += complete != savedComplete ? 1 + 8 : 0;
+        ByteBuffer data = ByteBuffer.allocate(length);
+        if (journalLength == 0) {
+            data.putInt(JOURNAL_MAGIC).putLong(stamp);
+        }
+        byte[] raw = new byte[ObjectId.LENGTH];
+        for (int i = journaled; i < size; i += 1) {
+            ids[i].copyRawTo(raw, 0);
+            data.put(ADDED).put(raw).putInt(firstParents[i]).putInt(secondParents[i]);
+            data.putInt(generations[i]).putLong(times[i]);
+        }
+        for (int i : newFilters) {
+            data.put(FILTERED).putInt(i).putInt(filters[i].length).put(filters[i]);
+        }
+        if (complete != savedComplete) {
+            data.put(COVERED).putLong(complete);
+        }
+        try {
+            Files.write(journalFile.toPath(), data.array(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        journalLength += length;
+        journalRecords += size - journaled + newFilters.size();
+        journaled = size;
+        newFilters.clear();
+        savedComplete = complete;
+    }
+
+    /* Writes the whole graph, sorted by id, to a new file with a new stamp
+       and drops the journal, which the stamp no longer matches. */
+    private void writeTable() {
+        sort();
+        int filterLength = 0;
+        for (int i = 0; i < size; i += 1) {
+            byte[] filter = changedPaths(i);
+            filterLength += filter == null ? 0 : 4 + filter.length;
+        }
+        stamp = new Random().nextLong() | 1;
+        ByteBuffer data = ByteBuffer.allocate(HEADER + size * (ObjectId.LENGTH + ENTRY) + filterLength);
+        data.putInt(MAGIC).putInt(VERSION).putLong(stamp).putLong(complete).putInt(size);
+        byte[] raw = new byte[ObjectId.LENGTH];
+        for (int i = 0; i < size; i += 1) {
+            ids[i].copyRawTo(raw, 0);
+            data.put(raw);
+        }
+        int filterOffset = 0;
+        for (int i = 0; i < size; i += 1) {
+            data.putInt(firstParents[i]).putInt(secondParents[i]).putInt(generations[i]).putLong(times[i]);
+            byte[] filter = changedPaths(i);
+            data.putInt(filter == null ? -1 : filterOffset);
+            filterOffset += filter == null ? 0 : 4 + filter.length;
+        }
+        for (int i = 0; i < size; i += 1) {
+            byte[] filter = changedPaths(i);
+            if (filter != null) {
+                data.putInt(filter.length).put(filter);
+            }
+        }
+        Utils.writeContents(file, data.array());
+        journalFile.delete();
+        journalLength = 0;
+        journalRecords = 0;
+        journaled = size;
+        newFilters.clear();
+        savedComplete = complete;
+        rewrite = false;
+    }
+
+    /* Puts the commits in order of id, as the file keeps them.  Those read
+       from the file are already in order, so only those added since need
+       sorting before the two runs are merged. */
+    private void sort() {
+        Integer[] added = new Integer[size - sorted];
+        for (int i = sorted; i < size; i += 1) {
+            added[i - sorted] = i;
+        }
+        Arrays.sort(added, (a, b) -> ids[a].compareTo(ids[b]));
+        int[] order = new int[size];
+        int old = 0;
+        int next = 0;
+        for (int i = 0; i < size; i += 1) {
+            if (next == added.length || old < sorted && ids[old].compareTo(ids[added[next]]) < 0) {
+                order[i] = old;
+                old += 1;
+            } else {
+                order[i] = added[next];
+                next += 1;
+            }
+        }
+        int[] renumber = new int[size];
+        for (int i = 0; i < size; i += 1) {
+            renumber[order[i]] = i;
+        }
+        ObjectId[] oldIds = ids;
+        int[] oldFirstParents = firstParents;
+        int[] oldSecondParents = secondParents;
+        int[] oldGenerations = generations;
+        long[] oldTimes = times;
+        byte[][] oldFilters = new byte[size][];
+        for (int i = 0; i < size; i += 1) {
+            oldFilters[i] = changedPaths(i);
+        }
+        int capacity = ids.length;
+        ids = null;
+        firstParents = null;
+        secondParents = null;
+        generations = null;
+        times = null;
+        filterOffsets = null;
+        filters = null;
+        allocate(capacity);
+        for (int i = 0; i < size; i += 1) {
+            int j = order[i];
+            ids[i] = oldIds[j];
+            firstParents[i] = oldFirstParents[j] < 0 ? -1 : renumber[oldFirstParents[j]];
+            secondParents[i] = oldSecondParents[j] < 0 ? -1 : renumber[oldSecondParents[j]];
+            generations[i] = oldGenerations[j];
+            times[i] = oldTimes[j];
+            filterOffsets[i] = -1;
+            filters[i] = oldFilters[j];
+            positions.put(ids[i], i);
+        }
+        sorted = size;
+    }
+
+    /* Forgets the commits in GONE, which must not include a parent of any
+       commit that stays. */
+    void remove(Set<ObjectId> gone) {
+        int[] renumber = new int[size];
+        int kept = 0;
+        int keptSorted = 0;
+        for (int i = 0; i < size; i += 1) {
+            renumber[i] = gone.contains(ids[i]) ? -1 : kept++;
+            if (i == sorted - 1) {
+                keptSorted = kept;
+            }
+        }
+        if (kept == size) {
+            return;
+        }
+        for (int i = 0; i < size; i += 1) {
+            int j = renumber[i];
+            if (j < 0) {
+                positions.remove(ids[i]);
+                continue;
+            }
+            byte[] filter = changedPaths(i);
+            ids[j] = ids[i];
+            firstParents[j] = firstParents[i] < 0 ? -1 : renumber[firstParents[i]];
+            secondParents[j] = secondParents[i] < 0 ? -1 : renumber[secondParents[i]];
+            generations[j] = generations[i];
+            times[j] = times[i];
+            filterOffsets[j] = -1;
+            filters[j] = filter;
+            positions.put(ids[j], j);
+        }
+        Arrays.fill(ids, kept, size, null);
+        Arrays.fill(filters, kept, size, null);
+        size = kept;
+        sorted = keptSorted;
+        rewrite = true;
+        dirty = true;
+    }
+
+    /* Records COMMIT, which has just been stored, unless it already is.
+       COVERED says whether the graph held every commit in the commits
+       directory before COMMIT was written, as covers() said then; the
+       caller must hold the repository lock. */
+    public void add(CommitNode commit, boolean covered) {
+        if (!positions.containsKey(ObjectId.fromString(commit.ID()))) {
+            append(commit);
+        }
+        if (covered) {
+            complete = commitsDir.lastModified();
+            trusted = true;
+            dirty = true;
+        }
+    }
+
+    /* Returns true if the graph is known to hold every commit in the commits
+       directory. */
+    public boolean covers() {
+        return trusted && commitsDir.lastModified() == complete;
+    }
+
+    /* Returns the position of the commit named ID, adding it to the graph if
+       needed, or -1 if there is no such commit. */
+    public int position(String id) {
+        return ObjectId.isId(id) ? position(ObjectId.fromString(id)) : -1;
+    }
+
+    /* Returns the position of the commit ID, adding it and its ancestors to
+       the graph if needed, or -1 if there is no such commit. */
+    public int position(ObjectId id) {
+        Integer position = positions.get(id);
+        if (position != null) {
+            return position;
+        }
+        CommitNode commit = readCommit(id);
+        if (commit == null) {
+            return -1;
+        }
+        Deque<CommitNode> pending = new ArrayDeque<>();
+        pending.push(commit);
+        while (!pending.isEmpty()) {
+            CommitNode next = pending.peek();
+            boolean ready = true;
+            for (String parent : new String[]{next.firstParent(), next.secondParent()}) {
+                if (parent != null && !positions.containsKey(ObjectId.fromString(parent))) {
+                    CommitNode parentCommit = readCommit(ObjectId.fromString(parent));
+                    if (parentCommit != null) {
+                        pending.push(parentCommit);
+                        ready = false;
+                    }
+                }
+            }
+            if (ready) {
+                pending.pop();
+                if (!positions.containsKey(ObjectId.fromString(next.ID()))) {
+                    append(next);
+                }
+            }
+        }
+        return positions.get(id);
+    }
+
+    private CommitNode readCommit(ObjectId id) {
+        File commitFile = new File(commitsDir, id.name());
+        return commitFile.isFile() ? Utils.readObject(commitFile, CommitNode.class) : null;
+    }
+
+    private void append(CommitNode commit) {
+        int firstParent = position(commit.firstParent());
+        int secondParent = position(commit.secondParent());
+        int generation = 1;
+        if (firstParent >= 0) {
+            generation = generations[firstParent] + 1;
+        }
+        if (secondParent >= 0) {
+            generation = Math.max(generation, generations[secondParent] + 1);
+        }
+        put(ObjectId.fromString(commit.ID()), firstParent, secondParent, generation, time(commit.timeStamp()));
+        dirty = true;
+    }
+
+    private void put(ObjectId id, int firstParent, int secondParent, int generation, long time) {
+        if (size == ids.length) {
+            allocate(2 * size);
+        }
+        ids[size] = id;
+        firstParents[size] = firstParent;
+        secondParents[size] = secondParent;
+        generations[size] = generation;
+        filterOffsets[size] = -1;
+        times[size] = time;
+        positions.put(id, size);
+        size += 1;
+    }
+
+    /* Returns the ids of up to LIMIT commits whose names start with PREFIX,
+       which must be at least MIN_PREFIX hexadecimal digits.  Commits read
+       from the file are sorted, so they are found by binary search; only
+       the few added since are scanned.  Unless LIMIT matches were found,
+       the commits directory is searched too if the graph may be behind
+       it. */
+    public List<ObjectId> resolve(String prefix, int limit) {
+        List<ObjectId> matches = new ArrayList<>();
+        String padded = prefix + "0".repeat(Math.max(0, 2 * ObjectId.LENGTH - prefix.length()));
+        if (prefix.length() < MIN_PREFIX || !ObjectId.isId(padded)) {
+            return matches;
+        }
+        ObjectId low = ObjectId.fromString(padded);
+        int first = 0;
+        int last = sorted;
+        while (first < last) {
+            int mid = (first + last) >>> 1;
+            if (ids[mid].compareTo(low) < 0) {
+                first = mid + 1;
+            } else {
+                last = mid;
+            }
+        }
+        for (int i = first; i < sorted && matches.size() < limit && ids[i].name().startsWith(prefix); i += 1) {
+            matches.add(ids[i]);
+        }
+        for (int i = sorted; i < size && matches.size() < limit; i += 1) {
+            if (ids[i].name().startsWith(prefix)) {
+                matches.add(ids[i]);
+            }
+        }
+        if (matches.size() < limit && !covers()) {
+            matches.clear();
+            for (ObjectId id : catchUp()) {
+                if (id.name().startsWith(prefix) && matches.size() < limit) {
+                    matches.add(id);
+                }
+            }
+        }
+        return matches;
+    }
+
+    /* Adds every commit in the commits directory that the graph lacks and
+       returns the ids of them all, recording the directory's time if it is
+       old enough to trust. */
+    private List<ObjectId> catchUp() {
+        long start = System.currentTimeMillis();
+        long modified = commitsDir.lastModified();
+        List<ObjectId> found = new ArrayList<>();
+        List<String> names = Utils.plainFilenamesIn(commitsDir);
+        for (String name : names == null ? List.<String>of() : names) {
+            if (position(name) >= 0) {
+                found.add(ObjectId.fromString(name));
+            }
+        }
+        if (modified < start - RACY_INTERVAL && !(trusted && modified == complete)) {
+            complete = modified;
+            trusted = true;
+            dirty = true;
+        }
+        return found;
+    }
+
+    /* Returns the commit time kept for a commit with TIMESTAMP, which is
+       either a full commit timestamp or a date alone.  A date alone means
+       the start of that day, or its end if ENDOFDAY. */
+    static long time(String timeStamp, boolean endOfDay) {
+        if (timeStamp.length() == "yyyy-MM-dd".length()) {
+            LocalDate date = LocalDate.parse(timeStamp);
+            return (endOfDay ? date.atTime(23, 59, 59) : date.atStartOfDay()).toEpochSecond(ZoneOffset.UTC);
+        }
+        return time(timeStamp);
+    }
+
+    static long time(String timeStamp) {
+        return LocalDateTime.parse(timeStamp, TIME_FORMAT).toEpochSecond(ZoneOffset.UTC);
+    }
+
+    private void allocate(int capacity) {
+        ids = ids == null ? new ObjectId[capacity] : Arrays.copyOf(ids, capacity);
+        firstParents = firstParents == null ? new int[capacity] : Arrays.copyOf(firstParents, capacity);
+        secondParents = secondParents == null ? new int[capacity] : Arrays.copyOf(secondParents, capacity);
+        generations = generations == null ? new int[capacity] : Arrays.copyOf(generations, capacity);
+        times = times == null ? new long[capacity] : Arrays.copyOf(times, capacity);
+        filterOffsets = filterOffsets == null ? new int[capacity] : Arrays.copyOf(filterOffsets, capacity);
+        filters = filters == null ? new byte[capacity][] : Arrays.copyOf(filters, capacity);
+    }
+
+    public ObjectId id(int position) {
+        return ids[position];
+    }
+
+    public int generation(int position) {
+        return generations[position];
+    }
+
+    public long time(int position) {
+        return times[position];
+    }
+
+    /* Returns the changed-path filter of the commit at POSITION, or null if
+       it has not been computed. */
+    public byte[] changedPaths(int position) {
+        if (filters[position] == null && filterOffsets[position] >= 0) {
+            int offset = filterOffsets[position];
+            byte[] filter = new byte[filterData.getInt(offset)];
+            filterData.get(offset + 4, filter);
+            filters[position] = filter;
+        }
+        return filters[position];
+    }
+
+    public void setChangedPaths(int position, byte[] filter) {
+        filters[position] = filter;
+        if (filter != null) {
+            newFilters.add(position);
+        } else {
+            newFilters.remove(position);
+        }
+        dirty = true;
+    }
+
+    /* Returns the position of the first parent of the commit at POSITION, or
+       -1 for a root. */
+    public int firstParent(int position) {
+        return firstParents[position];
+    }
+
+    /* Returns the positions of the parents of the commit at POSITION, first
+       parent first. */
+    public int[] parents(int position) {
+        if (firstParents[position] < 0) {
+            return secondParents[position] < 0 ? new int[0] : new int[]{secondParents[position]};
+        }
+        return secondParents[position] < 0 ? new int[]{firstParents[position]}
+                : new int[]{firstParents[position], secondParents[position]};
+    }
+
+    /* Returns true if ANCESTOR is DESCENDANT or one of its ancestors. */
+    public boolean isAncestor(ObjectId ancestor, ObjectId descendant) {
+        int target = position(ancestor);
+        int start = position(descendant);
+        if (target < 0 || start < 0) {
+            return false;
+        }
+        BitSet seen = new BitSet(size);
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(start);
+        seen.set(start);
+        while (!stack.isEmpty()) {
+            int next = stack.pop();
+            if (next == target) {
+                return true;
+            }
+            if (generations[next] <= generations[target]) {
+                continue;
+            }
+            for (int parent : parents(next)) {
+                if (!seen.get(parent)) {
+                    seen.set(parent);
+                    stack.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /* Returns the positions of START and all of its ancestors. */
+    public BitSet ancestors(int start) {
+        return ancestors(List.of(start));
+    }
+
+    /* Returns the positions of STARTS and all of their ancestors. */
+    public BitSet ancestors(Collection<Integer> starts) {
+        BitSet seen = new BitSet(size);
+        Deque<Integer> stack = new ArrayDeque<>();
+        for (int start : starts) {
+            if (!seen.get(start)) {
+                stack.push(start);
+                seen.set(start);
+            }
+        }
+        while (!stack.isEmpty()) {
+            for (int parent : parents(stack.pop())) {
+                if (!seen.get(parent)) {
+                    seen.set(parent);
+                    stack.push(parent);
+                }
+            }
+        }
+        return seen;
+    }
+
+    /* Returns the best common ancestor of OURS in this graph and THEIRS in
+       the graph OTHER, which may be this one, or null if they have none.
+       Of several common ancestors, the one with the largest generation is
+       chosen; it cannot be an ancestor of any of the others. */
+    public ObjectId mergeBase(ObjectId ours, CommitGraph other, ObjectId theirs) {
+        int start = position(ours);
+        if (start < 0 || other.position(theirs) < 0) {
+            return null;
+        }
+        if (other == this) {
+            return mergeBase(start, position(theirs));
+        }
+        BitSet ourAncestors = ancestors(start);
+        BitSet seen = new BitSet(other.size);
+        PriorityQueue<Integer> queue = other.byGeneration();
+        queue.add(other.position(theirs));
+        while (!queue.isEmpty()) {
+            int next = queue.poll();
+            int local = position(other.ids[next]);
+            if (local >= 0 && ourAncestors.get(local)) {
+                return other.ids[next];
+            }
+            for (int parent : other.parents(next)) {
+                if (!seen.get(parent)) {
+                    seen.set(parent);
+                    queue.add(parent);
+                }
+            }
+        }
+        return null;
+    }
+
+    /* Walks down from A and B in order of decreasing generation, marking
+       which of them reaches each commit.  Every descendant of a commit has a
+       larger generation, so a commit's marks are complete when it is
+       reached, and the first commit reached from both is the answer. */
+    private ObjectId mergeBase(int a, int b) {
+        byte[] flags = new byte[size];
+        PriorityQueue<Integer> queue = byGeneration();
+        flags[a] |= OURS;
+        flags[b] |= THEIRS;
+        queue.add(a);
+        if (b != a) {
+            queue.add(b);
+        }
+        while (!queue.isEmpty()) {
+            int next = queue.poll();
+            if (flags[next] == (OURS | THEIRS)) {
+                return ids[next];
+            }
+            for (int parent : parents(next)) {
+                if ((flags[parent] | flags[next]) != flags[parent]) {
+                    boolean queued = flags[parent] != 0;
+                    flags[parent] |= flags[next];
+                    if (!queued) {
+                        queue.add(parent);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private PriorityQueue<Integer> byGeneration() {
+        return new PriorityQueue<>((x, y) -> Integer.compare(generations[y], generations[x]));
+    }
+}
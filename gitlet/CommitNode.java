@@ -2,7 +2,6 @@ package gitlet;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
-import java.util.HashMap;
 import java.io.Serializable;
 
 public class CommitNode implements Serializable {
@@ -11,20 +10,29 @@ public class CommitNode implements Serializable {
     private String timeStamp;
     private String firstParent;
     private String secondParent;
-    private HashMap<String, String> blobs;
+    private ObjectId tree;
 
-    CommitNode(String parent, String logMessage, HashMap<String, String> blobs) {
+    CommitNode(String parent, String logMessage, ObjectId tree) {
+        this(parent, null, logMessage, tree);
+    }
+
+    /* A merge commit, whose SECONDPARENT, if not null, is part of its id. */
+    CommitNode(String parent, String secondParent, String logMessage, ObjectId tree) {
         this.firstParent = parent;
+        this.secondParent = secondParent;
         this.logMessage = logMessage;
-        this.blobs = blobs;
+        this.tree = tree;
         DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
         timeStamp = dtf.format(LocalDateTime.now());
         if (parent == null) {
             timeStamp = dtf.format(LocalDateTime.ofEpochSecond(0,0, ZoneOffset.UTC));
         }
         String prt = parent == null ? "" : parent;
-        String files = blobs.isEmpty() ? "" : blobs.toString();
-        id = Utils.sha1(files, prt, logMessage, timeStamp);
+        if (secondParent == null) {
+            id = Utils.sha1(tree.name(), prt, logMessage, timeStamp);
+        } else {
+            id = Utils.sha1(tree.name(), prt, secondParent, logMessage, timeStamp);
+        }
     }
 
     public String ID() {
@@ -43,20 +51,16 @@ public class CommitNode implements Serializable {
         return secondParent;
     }
 
-    public void setSecondParent(String secondParent) {
-        this.secondParent = secondParent;
-    }
-
     public String logMessage() {
         return logMessage;
     }
 
-    public HashMap<String, String> blobs() {
-        return blobs;
+    public ObjectId tree() {
+        return tree;
     }
 
     public CommitNode copy() {
-        CommitNode copy = new CommitNode(firstParent, logMessage, blobs);
+        CommitNode copy = new CommitNode(firstParent, logMessage, tree);
         copy.secondParent = this.secondParent;
         copy.timeStamp = this.timeStamp;
         copy.id = this.id;
@@ -1,47 +1,241 @@
 package gitlet;
 import java.io.*;
+import java.nio.file.Path;
+import java.time.DateTimeException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class CommitTree implements Serializable {
-    CommitNode initialCommit;
+public class CommitTree {
+    static final String STATE_FILE = "state";
+    /* How many days gc leaves unreachable objects alone. */
+    static final long GC_GRACE_DAYS = 14;
+
+    /* The references and staging area, which are written and read as one. */
+    private static class State implements Serializable {
+        private String currentBranchName;
+        private Map<String, String> branches;
+        private StagingArea stagingArea;
+        private Map<String, String> remoteLoc;
+    }
+
+    File gitletDir;
+    File workingDir;
+    File commitsDir;
+    TreeStore trees;
+    CommitGraph graph;
+    MessageIndex messageIndex;
+    BlobStore blobStore;
     CommitNode head;
-    Map<String, CommitNode> branches;
+    Map<String, String> branches;
     String currentBranchName;
     StagingArea stagingArea;
+    StatCache statCache;
     Set<String> removedFiles;
     Set<String> untrackedFiles;
-    Map<String, CommitNode> idToCommits;
+    Map<ObjectId, CommitNode> idToCommits;
     Map<String, String> remoteLoc;
-    String localBlobDir = ".gitlet/blobs/";
-    public CommitTree() {
-        initialCommit = new CommitNode(null, "initial commit", new HashMap<>());
+    public CommitTree(File gitletDir) {
+        this.gitletDir = gitletDir;
+        workingDir = gitletDir.getAbsoluteFile().getParentFile();
+        commitsDir = new File(gitletDir, "commits");
+        commitsDir.mkdirs();
+        graph = new CommitGraph(new File(gitletDir, "commit-graph"), commitsDir);
+        messageIndex = new MessageIndex(gitletDir, commitsDir);
+        trees = new TreeStore(new File(gitletDir, "trees"));
+        blobStore = new BlobStore(new File(gitletDir, "blobs"));
+        idToCommits = new HashMap<>();
+        CommitNode initialCommit = new CommitNode(null, "initial commit", trees.emptyTree());
+        storeCommit(initialCommit);
         head = initialCommit;
-        branches = new HashMap<>(){{put("master", initialCommit);}};
+        branches = new HashMap<>();
+        branches.put("master", initialCommit.ID());
         currentBranchName = "master";
         stagingArea = new StagingArea();
-        removedFiles = new HashSet<>();
-        untrackedFiles = new HashSet<>();
-        idToCommits = new HashMap<>(){{put(initialCommit.ID(), initialCommit);}};
+        statCache = StatCache.load(new File(gitletDir, "index"), workingDir);
+        removedFiles = stagingArea.removedFiles();
+        untrackedFiles = new TreeSet<>();
         remoteLoc = new HashMap<>();
     }
 
+    @SuppressWarnings("unchecked")
+    private CommitTree(File gitletDir, boolean load) {
+        this.gitletDir = gitletDir;
+        workingDir = gitletDir.getAbsoluteFile().getParentFile();
+        commitsDir = new File(gitletDir, "commits");
+        graph = new CommitGraph(new File(gitletDir, "commit-graph"), commitsDir);
+        messageIndex = new MessageIndex(gitletDir, commitsDir);
+        trees = new TreeStore(new File(gitletDir, "trees"));
+        blobStore = new BlobStore(new File(gitletDir, "blobs"));
+        idToCommits = new HashMap<>();
+        File stateFile = new File(gitletDir, STATE_FILE);
+        if (stateFile.isFile()) {
+            State state = Utils.readObject(stateFile, State.class);
+            currentBranchName = state.currentBranchName;
+            branches = state.branches;
+            stagingArea = state.stagingArea;
+            remoteLoc = state.remoteLoc;
+        } else {
+            currentBranchName = Utils.readContentsAsString(new File(gitletDir, "HEAD"));
+            branches = Utils.readObject(new File(gitletDir, "branches"), HashMap.class);
+            stagingArea = Utils.readObject(new File(gitletDir, "staging"), StagingArea.class);
+            remoteLoc = Utils.readObject(new File(gitletDir, "remotes"), HashMap.class);
+        }
+        statCache = StatCache.load(new File(gitletDir, "index"), workingDir);
+        removedFiles = stagingArea.removedFiles();
+        untrackedFiles = new TreeSet<>();
+        head = getCommit(branches.get(currentBranchName));
+    }
+
+    public static CommitTree load(File gitletDir) {
+        if (!new File(gitletDir, STATE_FILE).isFile() && !new File(gitletDir, "HEAD").isFile()) {
+            return null;
+        }
+        try {
+            return new CommitTree(gitletDir, true);
+        } catch (IllegalArgumentException excp) {
+            System.out.println("error.");
+            return null;
+        }
+    }
+
+    /* Saves the caches and then publishes the references and staging area,
+       all together in one atomic write, replacing the separate files that
+       older repositories kept them in. */
+    public void save() {
+        graph.save();
+        messageIndex.save();
+        saveIndex();
+        State state = new State();
+        state.currentBranchName = currentBranchName;
+        state.branches = branches;
+        state.stagingArea = stagingArea;
+        state.remoteLoc = remoteLoc;
+        Utils.writeObject(new File(gitletDir, STATE_FILE), state);
+        for (String legacy : new String[]{"HEAD", "branches", "staging", "remotes"}) {
+            new File(gitletDir, legacy).delete();
+        }
+    }
+
+    /* Saves what commands that only read the repository may have added to
+       its caches, without touching the references. */
+    public void saveCaches() {
+        graph.save();
+        messageIndex.save();
+        saveIndex();
+    }
+
+    public void saveIndex() {
+        statCache.save(new File(gitletDir, "index"));
+    }
+
+    public CommitNode getCommit(String id) {
+        if (!ObjectId.isId(id)) {
+            return null;
+        }
+        ObjectId key = ObjectId.fromString(id);
+        CommitNode commit = idToCommits.get(key);
+        if (commit == null) {
+            File commitFile = new File(commitsDir, id);
+            if (!commitFile.isFile()) {
+                return null;
+            }
+            commit = Utils.readObject(commitFile, CommitNode.class);
+            idToCommits.put(key, commit);
+        }
+        return commit;
+    }
+
+    private void storeCommit(CommitNode commit) {
+        idToCommits.put(ObjectId.fromString(commit.ID()), commit);
+        boolean covered = graph.covers();
+        Utils.writeObject(new File(commitsDir, commit.ID()), commit);
+        graph.add(commit, covered);
+        messageIndex.add(ObjectId.fromString(commit.ID()), commit.logMessage());
+        graph.setChangedPaths(graph.position(commit.ID()), changedPaths(commit));
+    }
+
+    /* Returns a BloomFilter of the paths, and their directories, that COMMIT
+       changed relative to its first parent. */
+    private byte[] changedPaths(CommitNode commit) {
+        CommitNode parent = getCommit(commit.firstParent());
+        ObjectId parentTree = parent == null ? trees.emptyTree() : parent.tree();
+        Set<String> paths = new HashSet<>();
+        for (String path : trees.diff(parentTree, commit.tree()).keySet()) {
+            for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', slash + 1)) {
+                paths.add(path.substring(0, slash));
+            }
+            paths.add(path);
+        }
+        return BloomFilter.create(paths);
+    }
+
+    private List<String> allCommitIds() {
+        List<String> ids = new ArrayList<>();
+        List<String> names = Utils.plainFilenamesIn(commitsDir);
+        for (String name : names == null ? List.<String>of() : names) {
+            if (ObjectId.isId(name)) {
+                ids.add(name);
+            }
+        }
+        return ids;
+    }
+
+    private CommitNode branchHead(String branchName) {
+        return getCommit(branches.get(branchName));
+    }
+
+    private Map<String, ObjectId> blobs(CommitNode commit) {
+        return trees.flatten(commit.tree());
+    }
+
+    private ObjectId blobId(CommitNode commit, String fileName) {
+        return trees.lookup(commit.tree(), fileName);
+    }
+
     // ******LOCAL FEATURES*******************
 
-    public void add(String fileName) {
-        File file = new File(fileName);
-        if (!file.exists()) {
-            System.out.println("File does not exist.");
-            return;
+    /* Stages every file named by FILENAMES, where a directory, including ".",
+       stands for the files below it that are not ignored.  Nothing is staged
+       if any name does not exist.  Files are hashed and stored in parallel,
+       and each file is staged once however many names cover it. */
+    public void add(String[] fileNames) {
+        Set<String> files = new TreeSet<>();
+        WorkingTree workingTree = null;
+        for (String fileName : fileNames) {
+            File file = new File(fileName);
+            if (file.isDirectory()) {
+                if (workingTree == null) {
+                    workingTree = new WorkingTree(workingDir);
+                }
+                files.addAll(workingTree.files(relativePath(fileName)));
+            } else if (file.isFile()) {
+                files.add(relativePath(fileName));
+            } else {
+                System.out.println("File does not exist.");
+                return;
+            }
         }
-        String id = stagingArea.add(fileName);
-        if (head.blobs().getOrDefault(fileName, "").equals(id)) {
-            stagingArea.remove(fileName);
+        List<String> names = new ArrayList<>(files);
+        List<ObjectId> ids = Utils.parallelMap(names, name -> statCache.store(name, blobStore));
+        for (int i = 0; i < names.size(); i += 1) {
+            String fileName = names.get(i);
+            if (ids.get(i).equals(blobId(head, fileName))) {
+                stagingArea.remove(fileName);
+            } else {
+                stagingArea.add(fileName, ids.get(i));
+            }
+            untrackedFiles.remove(fileName);
+            removedFiles.remove(fileName);
         }
-        untrackedFiles.remove(fileName);
-        removedFiles.remove(fileName);
     }
 
     public void commit(String message) {
+        commit(message, null);
+    }
+
+    /* Commits the staged changes with MESSAGE, as a merge of SECONDPARENT
+       into head if that is not null. */
+    private void commit(String message, String secondParent) {
         if (message.isEmpty()) {
             System.out.println("Please enter a commit message");
             return;
@@ -50,63 +244,151 @@ public class CommitTree implements Serializable {
             System.out.println("No changes added to the commit.");
             return;
         }
-        HashMap<String, String> Blobs = new HashMap<>(head.blobs());
-        Blobs.putAll(stagingArea.stagedFiles());
+        Map<String, ObjectId> changes = new HashMap<>(stagingArea.stagedFiles());
         for (String fileName : removedFiles) {
-            Blobs.remove(fileName);
+            changes.put(fileName, null);
         }
-        CommitNode newCommit = new CommitNode(head.ID(), message, Blobs);
-        idToCommits.put(newCommit.ID(), newCommit);
+        ObjectId tree = trees.update(head.tree(), changes);
+        CommitNode newCommit = new CommitNode(head.ID(), secondParent, message, tree);
+        storeCommit(newCommit);
         head = newCommit;
-        branches.put(currentBranchName, newCommit);
+        branches.put(currentBranchName, newCommit.ID());
         stagingArea.clear();
         removedFiles.clear();
     }
 
     public void rm(String fileName) {
-        File file = new File(fileName);
-        if (!stagingArea.stagedFiles().containsKey(fileName) && !head.blobs().containsKey(fileName)) {
+        fileName = relativePath(fileName);
+        boolean tracked = blobId(head, fileName) != null;
+        if (!stagingArea.stagedFiles().containsKey(fileName) && !tracked) {
             System.out.println("No reason to remove the file.");
             return;
         }
         stagingArea.remove(fileName);
-        if (head.blobs().containsKey(fileName)) {
-            Utils.restrictedDelete(file);
+        if (tracked) {
+            deleteWorkingFile(fileName);
+            statCache.forget(fileName);
             removedFiles.add(fileName);
         }
     }
 
-    public void log() {
-        CommitNode node = head;
-        while(node != null) {
-            System.out.println("===");
-            System.out.println("commit " + node.ID());
-            System.out.println("Date:  " + node.timeStamp());
-            System.out.println(node.logMessage() + "\n");
-            node = idToCommits.get(node.firstParent());
+    /* Logs the first-parent history of head as selected by OPTIONS, which
+       may be -n <count>, --since <date>, --until <date>, --topo-order,
+       --both-parents, and -- <path> to keep only the commits that changed
+       that file or directory.  Returns false if OPTIONS are not valid. */
+    public boolean log(String[] options) {
+        return log(options, false);
+    }
+
+    /* Logs every commit, newest first, as selected by OPTIONS. */
+    public boolean globalLog(String[] options) {
+        return log(options, true);
+    }
+
+    private boolean log(String[] options, boolean global) {
+        RevWalk.Order order = RevWalk.Order.DATE;
+        boolean bothParents = global;
+        int limit = Integer.MAX_VALUE;
+        long since = Long.MIN_VALUE;
+        long until = Long.MAX_VALUE;
+        String path = null;
+        try {
+            for (int i = 0; i < options.length; i += 1) {
+                switch (options[i]) {
+                    case "-n":
+                        limit = Integer.parseInt(options[++i]);
+                        break;
+                    case "--since":
+                        since = CommitGraph.time(options[++i], false);
+                        break;
+                    case "--until":
+                        until = CommitGraph.time(options[++i], true);
+                        break;
+                    case "--topo-order":
+                        order = RevWalk.Order.TOPO;
+                        break;
+                    case "--both-parents":
+                        bothParents = true;
+                        break;
+                    case "--":
+                        path = relativePath(options[++i]);
+                        break;
+                    default:
+                        return false;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException | DateTimeException excp) {
+            return false;
+        }
+        RevWalk walk = new RevWalk(graph, order).firstParentOnly(!bothParents)
+                .between(since, until).limit(limit);
+        if (path != null && !path.isEmpty()) {
+            String changed = path;
+            walk.filter(position -> changes(position, changed));
         }
+        if (global) {
+            for (String id : allCommitIds()) {
+                walk.start(graph.position(id));
+            }
+        } else {
+            walk.start(graph.position(head.ID()));
+        }
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), Utils.BUFFER_SIZE));
+        while (walk.hasNext()) {
+            printCommit(out, getCommit(graph.id(walk.next()).name()));
+        }
+        out.flush();
+        return true;
     }
 
-    public void globalLog() {
-        for (CommitNode commit : idToCommits.values()) {
-            System.out.println("===");
-            System.out.println("commit " + commit.ID());
-            System.out.println("Date:  " + commit.timeStamp());
-            System.out.println(commit.logMessage() + "\n");
+    /* Returns true if the commit at POSITION changed the file or directory
+       PATH relative to its first parent.  A commit whose changed-path filter
+       rules PATH out is passed over without reading it or its trees. */
+    private boolean changes(int position, String path) {
+        byte[] filter = graph.changedPaths(position);
+        CommitNode commit = null;
+        if (filter == null) {
+            commit = getCommit(graph.id(position).name());
+            filter = changedPaths(commit);
+            graph.setChangedPaths(position, filter);
+        }
+        if (!BloomFilter.mightContain(filter, path)) {
+            return false;
+        }
+        if (commit == null) {
+            commit = getCommit(graph.id(position).name());
         }
+        CommitNode parent = getCommit(commit.firstParent());
+        ObjectId parentTree = parent == null ? trees.emptyTree() : parent.tree();
+        return !Objects.equals(trees.entry(commit.tree(), path), trees.entry(parentTree, path));
+    }
+
+    private void printCommit(PrintWriter out, CommitNode commit) {
+        out.println("===");
+        out.println("commit " + commit.ID());
+        out.println("Date:  " + commit.timeStamp());
+        out.println(commit.logMessage() + "\n");
     }
 
     public void find(String message) {
-        boolean found = false;
-        for(String id : idToCommits.keySet()) {
-            if (idToCommits.get(id).logMessage().equals(message)) {
-                found = true;
-                System.out.println(id);
-            }
-        }
-        if(!found) {
+        printIds(messageIndex.exact(message));
+    }
+
+    public void findPrefix(String prefix) {
+        printIds(messageIndex.prefix(prefix));
+    }
+
+    public void findWords(String words) {
+        printIds(messageIndex.words(words));
+    }
+
+    private void printIds(Collection<ObjectId> ids) {
+        if (ids.isEmpty()) {
             System.out.println("Found no commit with that message.");
         }
+        for (ObjectId id : ids) {
+            System.out.println(id);
+        }
     }
 
     public void status() {
@@ -118,97 +400,244 @@ public class CommitTree implements Serializable {
             System.out.println(branchName);
         }
         System.out.println("\n=== Staged Files ===");
+        Map<String, String> stagedRenames = stagedRenames();
         for(String stagedFile : stagingArea.stagedFiles().keySet()) {
-            System.out.println(stagedFile);
+            String source = stagedRenames.get(stagedFile);
+            System.out.println(source == null ? stagedFile : stagedFile + " (renamed from " + source + ")");
         }
         System.out.println("\n=== Removed Files ===");
         for(String removedFile : removedFiles) {
             System.out.println(removedFile);
         }
         System.out.println("\n=== Modifications Not Staged For Commit ===");
-        for (String fileName : head.blobs().keySet()) {
-            File file = new File(fileName);
-            if(!file.exists() && !removedFiles.contains(fileName)) {
-                System.out.println(fileName + " (deleted)");
-            }
-            if (file.exists() && !stagingArea.stagedFiles().containsKey(fileName)
-                    && fileModified(head.blobs().get(fileName), fileName)) {
-                System.out.println(fileName + " (modified)");
-            }
+        List<Candidate> candidates = new ArrayList<>();
+        for (Map.Entry<String, ObjectId> tracked : blobs(head).entrySet()) {
+            candidates.add(new Candidate(tracked.getKey(), tracked.getValue(), false));
         }
-        for (String fileName : stagingArea.stagedFiles().keySet()) {
-            File file = new File(fileName);
-            if (file.exists() && fileModified(stagingArea.stagedFiles().get(fileName), fileName)) {
-                System.out.println(file + " (modified)");
+        for (Map.Entry<String, ObjectId> staged : stagingArea.stagedFiles().entrySet()) {
+            candidates.add(new Candidate(staged.getKey(), staged.getValue(), true));
+        }
+        List<String> modifications = Utils.parallelMap(candidates, this::modification);
+        updateUntrackedFiles();
+        Map<String, ObjectId> deleted = new HashMap<>();
+        for (int i = 0; i < candidates.size(); i += 1) {
+            if (modifications.get(i) != null && modifications.get(i).endsWith(" (deleted)")) {
+                deleted.put(candidates.get(i).fileName, candidates.get(i).id);
             }
-            if (!file.exists()) {
-                System.out.println(file + " (deleted)");
+        }
+        Map<String, String> workingRenames = workingRenames(deleted);
+        for (int i = 0; i < candidates.size(); i += 1) {
+            String renamed = workingRenames.get(candidates.get(i).fileName);
+            if (renamed != null && deleted.containsKey(candidates.get(i).fileName)) {
+                System.out.println(candidates.get(i).fileName + " (renamed to " + renamed + ")");
+            } else if (modifications.get(i) != null) {
+                System.out.println(modifications.get(i));
             }
         }
         System.out.println("\n=== Untracked Files ===");
-        updateUntrackedFiles();
         for(String unTrackedFile : untrackedFiles) {
             System.out.println(unTrackedFile);
         }
     }
 
-    private boolean fileModified(String id, String fileName) {
-        File file = new File(fileName);
-        byte[] content = Utils.readContents(file);
-        String fileId = Utils.sha1((Object) content);
-        return !fileId.equals(id);
+    /* Returns a map from each newly staged file to the removed file it
+       renames. */
+    private Map<String, String> stagedRenames() {
+        Map<String, ObjectId> deleted = new HashMap<>();
+        for (String fileName : removedFiles) {
+            deleted.put(fileName, blobId(head, fileName));
+        }
+        Map<String, ObjectId> added = new HashMap<>();
+        for (Map.Entry<String, ObjectId> staged : stagingArea.stagedFiles().entrySet()) {
+            if (blobId(head, staged.getKey()) == null) {
+                added.put(staged.getKey(), staged.getValue());
+            }
+        }
+        RenameDetector.Source blobs = (path, id) -> blobStore.open(id);
+        Map<String, String> renamedFrom = new HashMap<>();
+        for (Map.Entry<String, String> rename : RenameDetector.renames(deleted, blobs, added, blobs).entrySet()) {
+            renamedFrom.put(rename.getValue(), rename.getKey());
+        }
+        return renamedFrom;
+    }
+
+    /* Returns a map from each of the DELETED files, with their staged or
+       committed ids, to the untracked file it was renamed to. */
+    private Map<String, String> workingRenames(Map<String, ObjectId> deleted) {
+        if (deleted.isEmpty() || untrackedFiles.isEmpty()) {
+            return new HashMap<>();
+        }
+        List<String> names = new ArrayList<>(untrackedFiles);
+        List<ObjectId> ids = Utils.parallelMap(names, statCache::hash);
+        Map<String, ObjectId> added = new HashMap<>();
+        for (int i = 0; i < names.size(); i += 1) {
+            added.put(names.get(i), ids.get(i));
+        }
+        return RenameDetector.renames(deleted, (path, id) -> blobStore.open(id),
+                added, (path, id) -> new FileInputStream(new File(workingDir, path)));
+    }
+
+    private static class Candidate {
+        private String fileName;
+        private ObjectId id;
+        private boolean staged;
+
+        Candidate(String fileName, ObjectId id, boolean staged) {
+            this.fileName = fileName;
+            this.id = id;
+            this.staged = staged;
+        }
+    }
+
+    private String modification(Candidate candidate) {
+        String fileName = candidate.fileName;
+        boolean exists = new File(workingDir, fileName).exists();
+        if (!candidate.staged) {
+            if (!exists && !removedFiles.contains(fileName)) {
+                return fileName + " (deleted)";
+            }
+            if (exists && !stagingArea.stagedFiles().containsKey(fileName)
+                    && fileModified(candidate.id, fileName)) {
+                return fileName + " (modified)";
+            }
+        } else if (!exists) {
+            return fileName + " (deleted)";
+        } else if (fileModified(candidate.id, fileName)) {
+            return fileName + " (modified)";
+        }
+        return null;
+    }
+
+    private boolean fileModified(ObjectId id, String fileName) {
+        return !statCache.hash(fileName).equals(id);
     }
 
     private void updateUntrackedFiles(){
         untrackedFiles.clear();
-        File folder = new File(System.getProperty("user.dir"));
-        File[] listOfFiles = folder.listFiles();
-        assert listOfFiles != null;
-        for (File file : listOfFiles) {
-            if (file.isFile() && !head.blobs().containsKey(file.getName()) && !stagingArea.stagedFiles().containsKey(file.getName())) {
-                untrackedFiles.add(file.getName());
+        Map<String, ObjectId> tracked = blobs(head);
+        for (String fileName : new WorkingTree(workingDir).files()) {
+            if (!tracked.containsKey(fileName) && !stagingArea.stagedFiles().containsKey(fileName)) {
+                untrackedFiles.add(fileName);
             }
         }
     }
 
+    /* Prints, in unified format, the changes selected by OPTIONS: with none,
+       from the staged or committed version of each tracked file to the
+       working tree; with --staged, from the head commit to the staging area;
+       with two commit ids, from the first commit to the second.  Files with
+       equal ids are skipped unread, and the rest are diffed in parallel and
+       printed in path order as soon as they are ready. */
+    public boolean diff(String[] options) {
+        TreeMap<String, ObjectId[]> changes;
+        boolean working = options.length == 0;
+        if (working) {
+            changes = workingChanges();
+        } else if (options.length == 1 && (options[0].equals("--staged") || options[0].equals("--cached"))) {
+            changes = stagedChanges();
+        } else if (options.length == 2) {
+            String from = resolveCommitId(options[0]);
+            String to = from == null ? null : resolveCommitId(options[1]);
+            if (to == null) {
+                return true;
+            }
+            changes = trees.diff(getCommit(from).tree(), getCommit(to).tree());
+        } else {
+            return false;
+        }
+        Utils.parallelForEachOrdered(new ArrayList<>(changes.entrySet()),
+                change -> fileDiff(change.getKey(), change.getValue(), working),
+                text -> {
+                    System.out.write(text, 0, text.length);
+                    System.out.flush();
+                });
+        return true;
+    }
+
+    /* Returns the staged or committed and working-tree ids of each tracked
+       file whose working copy differs, with null for a deleted file. */
+    private TreeMap<String, ObjectId[]> workingChanges() {
+        Map<String, ObjectId> index = new HashMap<>(blobs(head));
+        index.keySet().removeAll(removedFiles);
+        index.putAll(stagingArea.stagedFiles());
+        List<String> names = new ArrayList<>(index.keySet());
+        List<ObjectId> ids = Utils.parallelMap(names,
+                name -> new File(workingDir, name).isFile() ? statCache.hash(name) : null);
+        TreeMap<String, ObjectId[]> changes = new TreeMap<>();
+        for (int i = 0; i < names.size(); i += 1) {
+            ObjectId staged = index.get(names.get(i));
+            if (!staged.equals(ids.get(i))) {
+                changes.put(names.get(i), new ObjectId[]{staged, ids.get(i)});
+            }
+        }
+        return changes;
+    }
+
+    /* Returns the head and staged ids of each staged or removed file. */
+    private TreeMap<String, ObjectId[]> stagedChanges() {
+        TreeMap<String, ObjectId[]> changes = new TreeMap<>();
+        for (Map.Entry<String, ObjectId> staged : stagingArea.stagedFiles().entrySet()) {
+            changes.put(staged.getKey(), new ObjectId[]{blobId(head, staged.getKey()), staged.getValue()});
+        }
+        for (String fileName : removedFiles) {
+            changes.put(fileName, new ObjectId[]{blobId(head, fileName), null});
+        }
+        return changes;
+    }
+
+    /* Returns the diff of FILENAME between the blobs IDS, where the second
+       is read from the working tree if WORKING. */
+    private byte[] fileDiff(String fileName, ObjectId[] ids, boolean working) {
+        try (InputStream before = ids[0] == null ? null : blobStore.open(ids[0]);
+             InputStream after = ids[1] == null ? null
+                     : working ? new FileInputStream(new File(workingDir, fileName)) : blobStore.open(ids[1])) {
+            return UnifiedDiff.format(fileName, before, after);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     public void checkout(String[] args) {
         if (args.length == 2 && args[0].equals("--")) {
-            String fileName = args[1];
-            if (!head.blobs().containsKey(fileName)) {
+            String fileName = relativePath(args[1]);
+            ObjectId blobId = blobId(head, fileName);
+            if (blobId == null) {
                 System.out.println("File does not exist in that commit.");
                 return;
             }
-            writeFile(fileName, head.blobs().get(fileName), localBlobDir);
+            writeFile(fileName, blobId);
         } else if (args.length == 3 && args[1].equals("--")) {
-            CommitNode targetCommit = idToCommits.get(args[0]);
-            String fileName = args[2];
-            if (!targetCommit.blobs().containsKey(fileName)) {
+            String commitId = resolveCommitId(args[0]);
+            String fileName = relativePath(args[2]);
+            if (commitId == null) {
+                return;
+            }
+            CommitNode targetCommit = getCommit(commitId);
+            ObjectId blobId = blobId(targetCommit, fileName);
+            if (blobId == null) {
                 System.out.println("File does not exist in that commit.");
                 return;
             }
-            writeFile(fileName, targetCommit.blobs().get(fileName), localBlobDir);
+            writeFile(fileName, blobId);
         } else if (args.length == 1) {
             String targetBranch = args[0];
             if(!branches.containsKey(targetBranch)) {
                 System.out.println("No such branch exists.");
                 return;
             }
-            if(head == branches.get(targetBranch)) {
+            if(head.ID().equals(branches.get(targetBranch))) {
                 System.out.println("No need to checkout the current branch.");
                 return;
             }
             updateUntrackedFiles();
             for (String fileName : untrackedFiles) {
-                if(branches.get(targetBranch).blobs().containsKey(fileName)) {
+                if(blobId(branchHead(targetBranch), fileName) != null) {
                     System.out.println("There is an untracked file in the way; delete it, or add and commit it first : " + fileName + ".");
                     return;
                 }
             }
-            head = branches.get(targetBranch);
+            moveHead(branchHead(targetBranch));
             currentBranchName = targetBranch;
-            for (String fileName : head.blobs().keySet()) {
-                writeFile(fileName, head.blobs().get(fileName), localBlobDir);
-            }
             stagingArea.clear();
             removedFiles.clear();
         } else {
@@ -216,16 +645,80 @@ public class CommitTree implements Serializable {
         }
     }
 
-    private void writeFile(String fileName, String id, String directory) {
-        File target, source;
-        if (directory.equals(localBlobDir)) {
-            target = new File(fileName);
-        } else {
-            target = new File(directory.substring(0, directory.length() - ".gitlet/blobs/".length()) + fileName);
+    /* Makes TARGET the head commit and updates the working tree to match,
+       touching only the files whose blobs differ between the two trees, and
+       those staged or removed, which the callers unstage: files TARGET
+       lacks are deleted first, then the rest are written in parallel.
+       Subtrees that the two commits share are never read. */
+    private void moveHead(CommitNode target) {
+        List<String> deleted = new ArrayList<>();
+        List<Map.Entry<String, ObjectId>> written = new ArrayList<>();
+        Map<String, ObjectId[]> changes = trees.diff(head.tree(), target.tree());
+        for (Map.Entry<String, ObjectId[]> change : changes.entrySet()) {
+            if (change.getValue()[1] == null) {
+                deleted.add(change.getKey());
+            } else {
+                written.add(Map.entry(change.getKey(), change.getValue()[1]));
+            }
+        }
+        Set<String> unstaged = new TreeSet<>(stagingArea.stagedFiles().keySet());
+        unstaged.addAll(removedFiles);
+        for (String fileName : unstaged) {
+            ObjectId blobId = blobId(target, fileName);
+            if (!changes.containsKey(fileName) && blobId != null) {
+                written.add(Map.entry(fileName, blobId));
+            }
+        }
+        for (String fileName : deleted) {
+            deleteWorkingFile(fileName);
+            statCache.forget(fileName);
+        }
+        Utils.parallelMap(written, file -> {
+            writeFile(file.getKey(), file.getValue());
+            return file;
+        });
+        head = target;
+    }
+
+    /* Returns the full id of the commit named by ID, which may be abbreviated
+       to any unique prefix of at least four digits, or null after saying
+       why there is none. */
+    private String resolveCommitId(String id) {
+        List<ObjectId> matches = graph.resolve(id.toLowerCase(Locale.ROOT), 2);
+        if (matches.size() > 1) {
+            System.out.println("Commit id " + id + " is ambiguous.");
+            return null;
         }
-        source = new File(directory + id);
-        byte[] content = Utils.readContents(source);
-        Utils.writeContents(target, content);
+        if (matches.isEmpty()) {
+            System.out.println("No commit with that id exists.");
+            return null;
+        }
+        return matches.get(0).name();
+    }
+
+    private void writeFile(String fileName, ObjectId id) {
+        File target = new File(workingDir, fileName);
+        target.getParentFile().mkdirs();
+        blobStore.writeTo(id, target);
+        statCache.record(fileName, id);
+    }
+
+    private void deleteWorkingFile(String fileName) {
+        File file = new File(workingDir, fileName);
+        file.delete();
+        File parent = file.getParentFile();
+        while (!parent.equals(workingDir) && parent.delete()) {
+            parent = parent.getParentFile();
+        }
+    }
+
+    private String relativePath(String fileName) {
+        Path path = new File(fileName).getAbsoluteFile().toPath().normalize();
+        return workingDir.toPath().relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    private void stageFile(String fileName) {
+        stagingArea.add(fileName, statCache.store(fileName, blobStore));
     }
 
     public void branch(String branch) {
@@ -233,7 +726,7 @@ public class CommitTree implements Serializable {
             System.out.println("A branch with that name already exists.");
             return;
         }
-        branches.put(branch, head);
+        branches.put(branch, head.ID());
     }
 
     public void rmBranch(String branch) {
@@ -247,24 +740,20 @@ public class CommitTree implements Serializable {
     }
 
     public void reset(String commitID) {
-        if (!idToCommits.containsKey(commitID)) {
-            System.out.println("No commit with that id exists.");
+        commitID = resolveCommitId(commitID);
+        if (commitID == null) {
             return;
         }
-        CommitNode targetCommit = idToCommits.get(commitID);
+        CommitNode targetCommit = getCommit(commitID);
         updateUntrackedFiles();
         for (String fileName : untrackedFiles) {
-            if(targetCommit.blobs().containsKey(fileName)) {
+            if(blobId(targetCommit, fileName) != null) {
                 System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
                 return;
             }
         }
-        for (String file : targetCommit.blobs().keySet()) {
-            String[] input = new String[]{commitID, "--", file};
-            checkout(input);
-        }
-        head = targetCommit;
-        branches.replace(currentBranchName, targetCommit);
+        moveHead(targetCommit);
+        branches.replace(currentBranchName, targetCommit.ID());
         stagingArea.clear();
         removedFiles.clear();
         untrackedFiles.clear();
@@ -279,51 +768,76 @@ public class CommitTree implements Serializable {
             System.out.println("Error");
             return;
         }
-        if (splitPoint == branches.get(branch)) {
+        if (splitPoint.ID().equals(branches.get(branch))) {
             System.out.println("Given branch is an ancestor of the current branch.");
             return;
         }
-        if (splitPoint == head) {
+        if (splitPoint.ID().equals(head.ID())) {
             String[] input = new String[]{branch};
             checkout(input);
             System.out.println("Current branch fast-forwarded.");
             return;
         }
 
-        CommitNode branchHead = branches.get(branch);
-
-        for (String file : branchHead.blobs().keySet()) {
-            if(!head.blobs().containsKey(file) && !splitPoint.blobs().containsKey(file)) {
-                String[] input = new String[]{branchHead.ID(), "--", file};
-                checkout(input);
-                stagingArea.add(file);
+        CommitNode branchHead = branchHead(branch);
+        TreeMap<String, ObjectId[]> branchChanges = trees.diff(splitPoint.tree(), branchHead.tree());
+        Map<String, String> headRenames = renames(trees.diff(splitPoint.tree(), head.tree()));
+        Map<String, String> branchRenames = renames(branchChanges);
+        Map<String, String> renamedFrom = new HashMap<>();
+        Set<String> handled = new HashSet<>();
+        for (Map.Entry<String, String> rename : branchRenames.entrySet()) {
+            String file = rename.getKey();
+            String renamed = rename.getValue();
+            renamedFrom.put(renamed, file);
+            ObjectId splitPointBlobId = branchChanges.get(file)[0];
+            ObjectId headBlobId = blobId(head, file);
+            if (headBlobId != null && !headBlobId.equals(splitPointBlobId) && blobId(head, renamed) == null) {
+                handleConflict(renamed, splitPointBlobId, headBlobId, branchChanges.get(renamed)[1]);
+                rm(file);
+                handled.add(file);
+                handled.add(renamed);
             }
-            if(!splitPoint.blobs().containsKey(file) && head.blobs().containsKey(file)
-                    && !head.blobs().get(file).equals(branchHead.blobs().get(file))) {
-                handleConflict(file, branch);
+        }
+        for (Map.Entry<String, String> rename : headRenames.entrySet()) {
+            ObjectId[] change = branchChanges.get(rename.getKey());
+            if (change != null && change[1] != null && !handled.contains(rename.getKey())) {
+                handleConflict(rename.getValue(), change[0], blobId(head, rename.getValue()), change[1]);
+                handled.add(rename.getKey());
             }
         }
 
-        for (String file : splitPoint.blobs().keySet()) {
-            String splitPointBlobId = splitPoint.blobs().get(file);
-            String branchHeadBlobId = branchHead.blobs().getOrDefault(file, "");
-            String headBlobId = head.blobs().getOrDefault(file, "");
-            if (!branchHeadBlobId.equals("") && !splitPointBlobId.equals(branchHeadBlobId)
-                    && splitPointBlobId.equals(headBlobId)) {
-                String[] input = new String[]{branchHead.ID(), "--", file};
-                checkout(input);
-                stagingArea.add(file);
+        for (Map.Entry<String, ObjectId[]> change : branchChanges.entrySet()) {
+            String file = change.getKey();
+            if (handled.contains(file)) {
+                continue;
             }
-            if (splitPointBlobId.equals(headBlobId) && branchHeadBlobId.equals("")) {
-                rm(file);
-            }
-            if(!splitPointBlobId.equals(headBlobId) && !splitPointBlobId.equals(branchHeadBlobId)
-                    && !headBlobId.equals(branchHeadBlobId)) {
-                handleConflict(file, branch);
+            ObjectId splitPointBlobId = change.getValue()[0];
+            ObjectId branchHeadBlobId = change.getValue()[1];
+            ObjectId headBlobId = blobId(head, file);
+            if (splitPointBlobId == null) {
+                if (headBlobId == null) {
+                    String[] input = new String[]{branchHead.ID(), "--", file};
+                    checkout(input);
+                    stageFile(file);
+                } else if (!headBlobId.equals(branchHeadBlobId)) {
+                    String source = renamedFrom.get(file);
+                    ObjectId base = source != null && file.equals(headRenames.get(source))
+                            ? branchChanges.get(source)[0] : null;
+                    handleConflict(file, base, headBlobId, branchHeadBlobId);
+                }
+            } else if (splitPointBlobId.equals(headBlobId)) {
+                if (branchHeadBlobId == null) {
+                    rm(file);
+                } else {
+                    String[] input = new String[]{branchHead.ID(), "--", file};
+                    checkout(input);
+                    stageFile(file);
+                }
+            } else if (!Objects.equals(headBlobId, branchHeadBlobId)) {
+                handleConflict(file, splitPointBlobId, headBlobId, branchHeadBlobId);
             }
         }
-        commit("Merged " + branch + " into " + currentBranchName + " .");
-        head.setSecondParent(branchHead.ID());
+        commit("Merged " + branch + " into " + currentBranchName + " .", branchHead.ID());
     }
 
     private boolean mergeFailureCases(String givenBranchName) {
@@ -341,7 +855,7 @@ public class CommitTree implements Serializable {
         }
         updateUntrackedFiles();
         for (String fileName : untrackedFiles) {
-            if(branches.get(givenBranchName).blobs().containsKey(fileName)) {
+            if(blobId(branchHead(givenBranchName), fileName) != null) {
                 System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
                 return true;
             }
@@ -349,73 +863,192 @@ public class CommitTree implements Serializable {
         return false;
     }
 
-    private void handleConflict(String fileName, String branch) {
-        System.out.println("Encountered a merge conflict : " + fileName);
-        CommitNode node = branches.get(branch);
-        String branchFileId = node.blobs().get(fileName);
-        String headFileId = head.blobs().get(fileName);
-        File file = new File(fileName);
-        File headFile = new File(".gitlet/blobs/" + headFileId);
-        File branchFile = new File(".gitlet/blobs/" + branchFileId);
-        ByteArrayOutputStream newContent = new ByteArrayOutputStream();
-        byte[] contentOfHeadFile = headFileId == null ? "".getBytes() : Utils.readContents(headFile);
-        byte[] contentOfBranchFile = branchFileId == null ? "".getBytes() : Utils.readContents(branchFile);
+    private void handleConflict(String fileName, ObjectId baseFileId, ObjectId headFileId, ObjectId branchFileId) {
+        File file = new File(workingDir, fileName);
+        file.getParentFile().mkdirs();
+        int[] conflicts = {-1};
         try {
-            newContent.write("<<<<<<< HEAD\n".getBytes());
-            if (headFileId != null) {
-                newContent.write(contentOfHeadFile);
-            }
-            newContent.write("\n=======\n".getBytes());
-            if (branchFileId != null) {
-                newContent.write(contentOfBranchFile);
-            }
-            newContent.write("\n>>>>>>>\n".getBytes());
-        } catch (IOException e) {
+            Utils.writeContents(file, merged -> {
+                if (headFileId != null && branchFileId != null) {
+                    try (InputStream base = baseFileId == null ? null : blobStore.open(baseFileId);
+                         InputStream ours = blobStore.open(headFileId);
+                         InputStream theirs = blobStore.open(branchFileId)) {
+                        conflicts[0] = LineMerge.merge(base, ours, theirs, merged);
+                    }
+                }
+                if (conflicts[0] < 0) {
+                    try (InputStream ours = headFileId == null ? null : blobStore.open(headFileId);
+                         InputStream theirs = branchFileId == null ? null : blobStore.open(branchFileId)) {
+                        LineMerge.conflict(ours, theirs, merged);
+                    }
+                    conflicts[0] = 1;
+                }
+            });
+        } catch (IllegalArgumentException excp) {
+            System.out.println("Cannot merge " + fileName + ": " + excp.getMessage());
             return;
         }
-        byte[] contentOfRewrite = newContent.toByteArray();
-        Utils.writeContents(file, contentOfRewrite);
-        stagingArea.add(fileName);
+        if (conflicts[0] > 0) {
+            System.out.println("Encountered a merge conflict : " + fileName);
+        }
+        stageFile(fileName);
     }
 
-    private CommitNode getSplitPoint(CommitTree commitTree, String branch) {
-        Queue<CommitNode> queue = new LinkedList<>();
-        queue.offer(head);
-        while (!queue.isEmpty()) {
-            CommitNode node = queue.poll();
-            if (isAncestor(commitTree, node, commitTree.branches.get(branch))) {
-                return node;
+    /* Returns the renames among the files deleted and added by CHANGES, as
+       returned by TreeStore.diff. */
+    private Map<String, String> renames(Map<String, ObjectId[]> changes) {
+        Map<String, ObjectId> deleted = new HashMap<>();
+        Map<String, ObjectId> added = new HashMap<>();
+        for (Map.Entry<String, ObjectId[]> change : changes.entrySet()) {
+            if (change.getValue()[1] == null) {
+                deleted.put(change.getKey(), change.getValue()[0]);
+            } else if (change.getValue()[0] == null) {
+                added.put(change.getKey(), change.getValue()[1]);
             }
-            CommitNode firstParent = idToCommits.get(node.firstParent());
-            CommitNode secondParent = idToCommits.get(node.secondParent());
-            if(firstParent != null) {
-                queue.offer(firstParent);
+        }
+        RenameDetector.Source blobs = (path, id) -> blobStore.open(id);
+        return RenameDetector.renames(deleted, blobs, added, blobs);
+    }
+
+    private CommitNode getSplitPoint(CommitTree commitTree, String branch) {
+        ObjectId splitPoint = graph.mergeBase(ObjectId.fromString(head.ID()), commitTree.graph,
+                ObjectId.fromString(commitTree.branches.get(branch)));
+        return splitPoint == null ? null : getCommit(splitPoint.name());
+    }
+
+    public void repack() {
+        int[] packed = blobStore.repack(deltaChains());
+        System.out.println("Packed " + packed[0] + " blobs, " + packed[1] + " as deltas.");
+    }
+
+    /* Returns, for each path, the blobs it has held, newest first, which are
+       the runs that repack stores as deltas against each other. */
+    private List<List<ObjectId>> deltaChains() {
+        Map<String, List<Map.Entry<String, ObjectId>>> versions = new HashMap<>();
+        for (String id : allCommitIds()) {
+            CommitNode commit = getCommit(id);
+            CommitNode parent = getCommit(commit.firstParent());
+            ObjectId parentTree = parent == null ? trees.emptyTree() : parent.tree();
+            for (Map.Entry<String, ObjectId[]> change : trees.diff(parentTree, commit.tree()).entrySet()) {
+                if (change.getValue()[1] != null) {
+                    versions.computeIfAbsent(change.getKey(), k -> new ArrayList<>())
+                            .add(Map.entry(commit.timeStamp(), change.getValue()[1]));
+                }
             }
-            if(secondParent != null) {
-                queue.offer(secondParent);
+        }
+        List<List<ObjectId>> chains = new ArrayList<>();
+        for (List<Map.Entry<String, ObjectId>> history : versions.values()) {
+            history.sort((a, b) -> b.getKey().compareTo(a.getKey()));
+            Set<ObjectId> chain = new LinkedHashSet<>();
+            for (Map.Entry<String, ObjectId> version : history) {
+                chain.add(version.getValue());
             }
+            chains.add(new ArrayList<>(chain));
         }
-        return null;
+        return chains;
     }
 
-    private boolean isAncestor(CommitTree commitTree, CommitNode ancestor, CommitNode son) {
-        Queue<CommitNode> queue = new LinkedList<>();
-        queue.offer(son);
-        while (!queue.isEmpty()) {
-            CommitNode node = queue.poll();
-            if(node.ID().equals(ancestor.ID())) {
+    /* gc [--prune DAYS|now]: deletes the commits, trees and blobs that
+       nothing refers to and repacks the rest.  An object is live if it can
+       be reached from a branch, remote-tracking branches included, or from
+       the staging area.  So that an object a concurrent command has only
+       just written is never lost, and a commit removed by mistake can still
+       be recovered by id for a while, nothing written in the last DAYS days
+       (GC_GRACE_DAYS by default) is deleted, nor anything it refers to.
+       The trees are marked on Utils.pool(), one task per live commit
+       sharing concurrent sets of what has been marked. */
+    public boolean gc(String[] options) {
+        long graceDays = GC_GRACE_DAYS;
+        if (options.length == 2 && options[0].equals("--prune")) {
+            try {
+                graceDays = options[1].equals("now") ? 0 : Long.parseLong(options[1]);
+            } catch (NumberFormatException excp) {
+                return false;
+            }
+            if (graceDays < 0) {
+                return false;
+            }
+        } else if (options.length != 0) {
+            return false;
+        }
+        long cutoff = System.currentTimeMillis() - graceDays * 24 * 60 * 60 * 1000;
+
+        List<String> commitIds = allCommitIds();
+        List<Integer> roots = new ArrayList<>();
+        List<String> rootIds = new ArrayList<>(branches.values());
+        for (String id : commitIds) {
+            if (new File(commitsDir, id).lastModified() >= cutoff) {
+                rootIds.add(id);
+            }
+        }
+        for (String id : rootIds) {
+            int position = graph.position(id);
+            if (position < 0) {
+                System.out.println("Commit " + id + " is missing; nothing was removed.");
                 return true;
             }
-            CommitNode firstParent = commitTree.idToCommits.get(node.firstParent());
-            CommitNode secondParent = commitTree.idToCommits.get(node.secondParent());
-            if(firstParent != null) {
-                queue.offer(firstParent);
+            roots.add(position);
+        }
+        BitSet liveCommits = graph.ancestors(roots);
+        List<ObjectId> rootTrees = new ArrayList<>();
+        rootTrees.add(trees.emptyTree());
+        for (ObjectId id : trees.ids()) {
+            if (trees.modified(id) >= cutoff) {
+                rootTrees.add(id);
+            }
+        }
+        List<ObjectId> markFrom = new ArrayList<>();
+        for (int i = liveCommits.nextSetBit(0); i >= 0; i = liveCommits.nextSetBit(i + 1)) {
+            markFrom.add(graph.id(i));
+        }
+        Set<ObjectId> liveTrees = ConcurrentHashMap.newKeySet();
+        Set<ObjectId> liveBlobs = ConcurrentHashMap.newKeySet();
+        liveBlobs.addAll(stagingArea.stagedFiles().values());
+        for (ObjectId id : rootTrees) {
+            markTree(id, liveTrees, liveBlobs);
+        }
+        Utils.parallelForEach(markFrom, id -> {
+            CommitNode commit = Utils.readObject(new File(commitsDir, id.name()), CommitNode.class);
+            markTree(commit.tree(), liveTrees, liveBlobs);
+        });
+
+        Set<ObjectId> deadCommits = new HashSet<>();
+        for (String id : commitIds) {
+            int position = graph.position(id);
+            if (position >= 0 && !liveCommits.get(position)) {
+                deadCommits.add(ObjectId.fromString(id));
             }
-            if(secondParent != null) {
-                queue.offer(secondParent);
+        }
+        for (ObjectId id : deadCommits) {
+            idToCommits.remove(id);
+            new File(commitsDir, id.name()).delete();
+        }
+        graph.remove(deadCommits);
+        messageIndex.remove(deadCommits);
+        int deadTrees = 0;
+        for (ObjectId id : trees.ids()) {
+            if (!liveTrees.contains(id)) {
+                trees.delete(id);
+                deadTrees += 1;
             }
         }
-        return false;
+        int[] packed = blobStore.repack(deltaChains(), liveBlobs, cutoff);
+        System.out.println("Removed " + deadCommits.size() + " commits, " + deadTrees + " trees and "
+                + packed[2] + " blobs. Packed " + packed[0] + " blobs, " + packed[1] + " as deltas.");
+        return true;
+    }
+
+    /* Adds the tree ID and everything below it to LIVETREES and LIVEBLOBS,
+       skipping subtrees already marked. */
+    private void markTree(ObjectId id, Set<ObjectId> liveTrees, Set<ObjectId> liveBlobs) {
+        if (id == null || !liveTrees.add(id)) {
+            return;
+        }
+        Tree tree = trees.read(id);
+        liveBlobs.addAll(tree.files().values());
+        for (ObjectId subtree : tree.dirs().values()) {
+            markTree(subtree, liveTrees, liveBlobs);
+        }
     }
 
     // ******REMOTE FEATURES*******************
@@ -440,145 +1073,125 @@ public class CommitTree implements Serializable {
 
     public void push(String[] args) {
         String remoteName = args[1];
-        String remoteBranchName = args[2];
         if (!remoteLoc.containsKey(remoteName)) {
             System.out.println("Remote directory not found.");
             return;
         }
-        String remoteLocation = remoteLoc.get(remoteName);
-        CommitTree remoteCommitTree = getRemoteCommitTree(remoteName);
-        if (remoteCommitTree == null) {
+        File remoteDir = new File(remoteLoc.get(remoteName));
+        if (!remoteDir.isDirectory()) {
             System.out.println("Remote gitlet not initialized");
             return;
         }
-        if (!remoteCommitTree.branches.containsKey(remoteBranchName)) {
-            if (isInHistory(remoteCommitTree.head)) {
-                remoteCommitTree.branch(remoteBranchName);
-            } else {
-                System.out.println("Please pull down remote changes before pushing.");
-                return;
-            }
+        RepositoryLock lock = RepositoryLock.acquire(remoteDir);
+        try {
+            push(remoteName, args[2]);
+        } finally {
+            lock.close();
         }
-        if (!remoteCommitTree.currentBranchName.equals(remoteBranchName)) {
-            remoteCommitTree.remoteCheckoutBranch(remoteBranchName, remoteLocation);
+    }
+
+    /* Pushes to REMOTEBRANCHNAME of REMOTENAME, whose lock is held. */
+    private void push(String remoteName, String remoteBranchName) {
+        CommitTree remoteCommitTree = getRemoteCommitTree(remoteName);
+        if (remoteCommitTree == null) {
+            System.out.println("Remote gitlet not initialized");
+            return;
         }
-        if (!isInHistory(remoteCommitTree.head)) {
+        /* A new branch starts from the remote's head. */
+        CommitNode remoteHead = remoteCommitTree.branches.containsKey(remoteBranchName)
+                ? remoteCommitTree.branchHead(remoteBranchName) : remoteCommitTree.head;
+        if (!isInHistory(remoteHead)) {
             System.out.println("Please pull down remote changes before pushing.");
             return;
         }
-        CommitNode startPoint = remoteCommitTree.head;
-        Stack<CommitNode> stack = new Stack<>();
-        Queue<CommitNode> queue = new LinkedList<>();
-        queue.offer(head);
-        while (!queue.isEmpty()) {
-            CommitNode node = queue.poll();
-            if (node.ID().equals(startPoint.ID())) {
-                break;
-            }
-            if (node.firstParent() != null) {
-                queue.offer(idToCommits.get(node.firstParent()));
-            }
-            if (node.secondParent() != null) {
-                queue.offer(idToCommits.get(node.secondParent()));
-            }
-            stack.push(node);
-        }
-        while (!stack.isEmpty()) {
-            CommitNode newCommit = stack.pop().copy();
-            if (newCommit.firstParent().equals(remoteCommitTree.head.ID())
-                    || (newCommit.secondParent() != null && newCommit.secondParent().equals(remoteCommitTree.head.ID()))) {
-                remoteCommitTree.appendCommit(currentBranchName, newCommit);
-                remoteCommitTree.head = newCommit;
-                copyBlobsToRemote(newCommit, remoteLocation);
-            }
-        }
-        remoteCommitTree.remoteCheckoutBranch(remoteBranchName, remoteLocation);
-        saveRemoteCommitTree(remoteLocation, remoteCommitTree);
+        transfer(head, remoteCommitTree);
+        remoteCommitTree.branches.put(remoteBranchName, head.ID());
+        remoteCommitTree.remoteCheckoutBranch(remoteBranchName);
+        remoteCommitTree.save();
         System.out.println("push succeed.");
     }
 
-    private void remoteCheckoutBranch(String targetBranch, String remoteLocation) {
-        if(!branches.containsKey(targetBranch)) {
-            System.out.println("No such branch exists.");
-            return;
-        }
-        head = branches.get(targetBranch);
+    /* Checks out TARGETBRANCH in this remote, which has just been pushed
+       to, changing only the files that differ from its old head. */
+    private void remoteCheckoutBranch(String targetBranch) {
+        moveHead(branchHead(targetBranch));
         currentBranchName = targetBranch;
-        for (String fileName : head.blobs().keySet()) {
-            writeFile(fileName, head.blobs().get(fileName), remoteLocation + "/blobs/");
-        }
         stagingArea.clear();
         removedFiles.clear();
     }
 
     private boolean isInHistory(CommitNode node){
-        Queue<CommitNode> queue = new LinkedList<>();
-        queue.offer(head);
-        while (!queue.isEmpty()) {
-            CommitNode curr = queue.poll();
-            if (curr.ID().equals(node.ID())) {
-                return true;
-            }
-            if (curr.firstParent() != null) {
-                queue.offer(idToCommits.get(curr.firstParent()));
-            }
-            if (curr.secondParent() != null) {
-                queue.offer(idToCommits.get(curr.secondParent()));
-            }
-        }
-        return false;
+        return graph.isAncestor(ObjectId.fromString(node.ID()), ObjectId.fromString(head.ID()));
     }
 
-    private void copyBlobsToRemote(CommitNode Commit, String remoteLocation) {
-        for (String blob : Commit.blobs().keySet()) {
-            String blobId = Commit.blobs().get(blob);
-            File sourceBlob = new File(".gitlet/blobs/" + blobId);
-            File targetBlob = new File(remoteLocation + "/blobs/" + blobId);
-            byte[] content = Utils.readContents(sourceBlob);
-            Utils.writeContents(targetBlob, content);
+    /* Copies the commit WANT and all of its history that RECEIVER lacks,
+       with their trees and blobs, into RECEIVER, moving nothing RECEIVER
+       already has.  Objects are written blobs first, then trees, then
+       commits parents first, so that RECEIVER never holds a commit or tree
+       without everything it refers to; the walks below rely on that. */
+    private void transfer(CommitNode want, CommitTree receiver) {
+        List<CommitNode> commits = missingCommits(want, receiver);
+        Set<ObjectId> blobs = new LinkedHashSet<>();
+        for (CommitNode commit : commits) {
+            CommitNode parent = getCommit(commit.firstParent());
+            ObjectId parentTree = parent == null ? trees.emptyTree() : parent.tree();
+            for (ObjectId[] change : trees.diff(parentTree, commit.tree()).values()) {
+                if (change[1] != null && !receiver.blobStore.contains(change[1])) {
+                    blobs.add(change[1]);
+                }
+            }
+        }
+        for (ObjectId blobId : blobs) {
+            blobStore.copyTo(receiver.blobStore, blobId);
+        }
+        for (CommitNode commit : commits) {
+            trees.copyTo(receiver.trees, commit.tree());
+        }
+        for (CommitNode commit : commits) {
+            receiver.storeCommit(commit.copy());
         }
     }
 
-    private void copyBlobsToLocal(CommitNode Commit, String remoteLocation) {
-        for (String blob : Commit.blobs().keySet()) {
-            String blobId = Commit.blobs().get(blob);
-            File sourceBlob = new File(remoteLocation + "/blobs/" + blobId);
-            File targetBlob = new File(".gitlet/blobs/" + blobId);
-            byte[] content = Utils.readContents(sourceBlob);
-            Utils.writeContents(targetBlob, content);
+    /* Returns the commits reachable from WANT through either parent that
+       RECEIVER does not have, each after its parents.  Because RECEIVER has
+       the whole history of every commit it has, the walk stops at them. */
+    private List<CommitNode> missingCommits(CommitNode want, CommitTree receiver) {
+        List<CommitNode> missing = new ArrayList<>();
+        Set<String> done = new HashSet<>();
+        Deque<CommitNode> stack = new ArrayDeque<>();
+        if (receiver.getCommit(want.ID()) == null) {
+            stack.push(want);
         }
+        while (!stack.isEmpty()) {
+            CommitNode node = stack.peek();
+            if (done.contains(node.ID())) {
+                stack.pop();
+                continue;
+            }
+            boolean ready = true;
+            for (String parent : new String[]{node.firstParent(), node.secondParent()}) {
+                if (parent != null && !done.contains(parent) && receiver.getCommit(parent) == null) {
+                    stack.push(getCommit(parent));
+                    ready = false;
+                }
+            }
+            if (ready) {
+                stack.pop();
+                done.add(node.ID());
+                missing.add(node);
+            }
+        }
+        return missing;
     }
 
     public void appendCommit(String branchName, CommitNode newCommit) {
-        idToCommits.put(newCommit.ID(), newCommit);
-        branches.put(branchName, newCommit);
-    }
-
-    private void saveRemoteCommitTree(String remoteLocation, CommitTree CommitTreeToSave) {
-        File remoteCommitTreeFile = new File(remoteLocation + "/commitTree");
-        try {
-            ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(remoteCommitTreeFile));
-            out.writeObject(CommitTreeToSave);
-            out.close();
-        } catch (IOException e) {
-            System.out.println("error.");
-        }
+        storeCommit(newCommit);
+        branches.put(branchName, newCommit.ID());
     }
 
     private CommitTree getRemoteCommitTree(String remoteName) {
-        CommitTree remoteCommitTree;
         String remoteLocation = remoteLoc.get(remoteName);
-        String path = (remoteLocation + "/commitTree");
-        File remoteCommitTreeFile = new File(path);
-        try {
-            ObjectInputStream inp = new ObjectInputStream(new FileInputStream(remoteCommitTreeFile));
-            remoteCommitTree = (CommitTree) inp.readObject();
-            inp.close();
-        } catch (IOException | ClassNotFoundException excp) {
-            System.out.println("error.");
-            remoteCommitTree = null;
-        }
-        return remoteCommitTree;
+        return CommitTree.load(new File(remoteLocation));
     }
 
     public boolean fetch(String[] args) {
@@ -589,34 +1202,18 @@ public class CommitTree implements Serializable {
             System.out.println("Remote directory not found.");
             return false;
         }
-        String remoteLocation = remoteLoc.get(remoteName);
         CommitTree remoteCommitTree = getRemoteCommitTree(remoteName);
-        if (!remoteCommitTree.branches.containsKey(remoteBranchName)) {
-            System.out.println("That remote does not have that branch.");
+        if (remoteCommitTree == null) {
+            System.out.println("Remote directory not found.");
             return false;
         }
-        CommitNode startPoint;
-        if (branches.containsKey(branchName)) {
-            startPoint = branches.get(branchName);
-        } else {
-            startPoint = getSplitPoint(remoteCommitTree, remoteBranchName);
-            branches.put(branchName, startPoint);
-        }
-        if (startPoint == null) {
-            System.out.println("Error");
+        if (!remoteCommitTree.branches.containsKey(remoteBranchName)) {
+            System.out.println("That remote does not have that branch.");
             return false;
         }
-        CommitNode remoteCommit = remoteCommitTree.branches.get(remoteBranchName);
-        Stack<CommitNode> stack = new Stack<>();
-        while (!startPoint.ID().equals(remoteCommit.ID())) {
-            stack.push(remoteCommit);
-            remoteCommit = remoteCommitTree.idToCommits.get(remoteCommit.firstParent());
-    }
-        while (!stack.isEmpty()) {
-            CommitNode newCommit = stack.pop().copy();
-            this.appendCommit(branchName, newCommit);
-            copyBlobsToLocal(newCommit, remoteLocation);
-        }
+        CommitNode remoteHead = remoteCommitTree.branchHead(remoteBranchName);
+        remoteCommitTree.transfer(remoteHead, this);
+        branches.put(branchName, remoteHead.ID());
         System.out.println("fetch succeed.");
         return true;
     }
@@ -635,30 +1232,6 @@ public class CommitTree implements Serializable {
             System.out.println("Remote directory not found.");
             return;
         }
-        String remoteLocation = remoteLoc.get(remoteName);
-        String blobPath = remoteLocation + "/blobs";
-
-        File blobFolder = new File(blobPath);
-        File[] listOfFiles = blobFolder.listFiles();
-        assert listOfFiles != null;
-        for (File file : listOfFiles) {
-            runCommand("scp " + blobPath + "/" + file.getName() + " " + ".gitlet/blobs");
-        }
-        runCommand("scp " + remoteLocation + "/commitTree" + " " + ".gitlet");
-    }
-
-    public void runCommand(String command) {
-        System.out.println("Running command: " + command);
-        try {
-            Process p = Runtime.getRuntime().exec(command);
-            BufferedReader stdInput = new BufferedReader(new InputStreamReader(p.getInputStream()));
-            BufferedReader stdError = new BufferedReader(new InputStreamReader(p.getErrorStream()));
-            p.waitFor();
-            stdInput.close();
-            stdError.close();
-        } catch (IOException | InterruptedException e) {
-            System.out.println("Exception while running command: " + command + " -- " + e);
-            e.printStackTrace();
-        }
+        Cloner.copy(new File(remoteLoc.get(remoteName)), gitletDir);
     }
 }
@@ -0,0 +1,185 @@
+package gitlet;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/* A long-lived server for one repository, so that a run of commands pays
+   for starting a JVM and loading the repository once rather than every
+   time.  The daemon listens on the Unix-domain socket .gitlet/daemon.sock
+   and runs each command it is sent exactly as Main would, one at a time,
+   sending back everything the command prints.  The CommitTree, with its
+   caches of commits, trees and file stats, is kept between commands and
+   only reloaded when one of the repository's state files has changed on
+   disk since the last command finished, or the last command failed.
+
+   While the daemon runs, Main forwards every command to it.  A request is
+   the number of arguments and then the arguments, each as UTF-8 text ended
+   by a NUL byte; the reply is the command's output, ended by the daemon
+   closing the connection.  That is simple enough for scripts to speak
+   directly, e.g. printf '%s\0' "$#" "$@" | nc -U .gitlet/daemon.sock. */
+class Daemon {
+    static final String SOCKET = "daemon.sock";
+    private static final String[] STATE_FILES = {
+        CommitTree.STATE_FILE, "index", "commit-graph", "commit-graph-journal", "message-journal"
+    };
+
+    private static boolean serving;
+    private static CommitTree warm;
+    private static long[] stamp;
+
+    /* Returns the CommitTree in GITLETDIR.  In the daemon this is the tree
+       kept from the last command, if the repository has not changed since. */
+    static CommitTree load(File gitletDir) {
+        if (!serving) {
+            return CommitTree.load(gitletDir);
+        }
+        if (warm == null || !Arrays.equals(stamp, stamp(gitletDir))) {
+            warm = CommitTree.load(gitletDir);
+        }
+        return warm;
+    }
+
+    /* Returns the modification times and lengths of the state files. */
+    private static long[] stamp(File gitletDir) {
+        long[] result = new long[2 * STATE_FILES.length];
+        for (int i = 0; i < STATE_FILES.length; i += 1) {
+            File file = new File(gitletDir, STATE_FILES[i]);
+            result[2 * i] = file.lastModified();
+            result[2 * i + 1] = file.length();
+        }
+        return result;
+    }
+
+    /* Runs ARGS in the daemon for GITLETDIR, if one is running, copying its
+       output to System.out.  Returns false if there is no daemon to run
+       them, in which case the caller should run them itself. */
+    static boolean forward(File gitletDir, String[] args) {
+        File socket = new File(gitletDir, SOCKET);
+        if (!socket.exists()) {
+            return false;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(socket.toPath()));
+        } catch (IOException | UnsupportedOperationException excp) {
+            return false;
+        }
+        try (channel) {
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            writeArg(request, Integer.toString(args.length));
+            for (String arg : args) {
+                writeArg(request, arg);
+            }
+            Channels.newOutputStream(channel).write(request.toByteArray());
+            Channels.newInputStream(channel).transferTo(System.out);
+        } catch (IOException excp) {
+            System.out.println("Lost connection to the gitlet daemon.");
+        }
+        System.out.flush();
+        return true;
+    }
+
+    private static void writeArg(OutputStream out, String arg) throws IOException {
+        out.write(arg.getBytes(StandardCharsets.UTF_8));
+        out.write(0);
+    }
+
+    /* Serves commands for GITLETDIR until told to stop. */
+    static void serve(File gitletDir) {
+        Path socket = new File(gitletDir, SOCKET).toPath();
+        if (Files.exists(socket) && forward(gitletDir, new String[]{"daemon", "ping"})) {
+            return;
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            Files.deleteIfExists(socket);
+            server.bind(UnixDomainSocketAddress.of(socket));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> socket.toFile().delete()));
+            System.out.println("Serving " + gitletDir.getAbsoluteFile().getParent() + ".");
+            serving = true;
+            while (serving) {
+                try (SocketChannel client = server.accept()) {
+                    String[] args = readArgs(new BufferedInputStream(Channels.newInputStream(client)));
+                    run(gitletDir, args, Channels.newOutputStream(client));
+                } catch (IOException excp) {
+                    /* The client went away; wait for the next one. */
+                }
+            }
+        } catch (IOException | UnsupportedOperationException excp) {
+            System.out.println("Cannot start the gitlet daemon: " + excp.getMessage());
+        } finally {
+            serving = false;
+            socket.toFile().delete();
+        }
+    }
+
+    /* Runs ARGS as Main would, sending its output to OUT. */
+    private static void run(File gitletDir, String[] args, OutputStream out) {
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        PrintStream reply = new PrintStream(new BufferedOutputStream(out, Utils.BUFFER_SIZE));
+        System.setOut(reply);
+        System.setErr(reply);
+        try {
+            if (args.length == 2 && args[0].equals("daemon") && args[1].equals("stop")) {
+                serving = false;
+            } else if (args.length == 2 && args[0].equals("daemon") && args[1].equals("ping")) {
+                System.out.println("A gitlet daemon is already running.");
+            } else {
+                Main.run(args);
+            }
+        } catch (RuntimeException | Error excp) {
+            excp.printStackTrace();
+            warm = null;
+        } finally {
+            reply.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        if (warm != null) {
+            stamp = stamp(gitletDir);
+        }
+    }
+
+    /* Returns the arguments of a request read from IN. */
+    private static String[] readArgs(InputStream in) throws IOException {
+        int count;
+        try {
+            count = Integer.parseInt(readArg(in));
+        } catch (NumberFormatException excp) {
+            throw new IOException("bad request");
+        }
+        if (count < 0) {
+            throw new IOException("bad request");
+        }
+        String[] args = new String[count];
+        for (int i = 0; i < count; i += 1) {
+            args[i] = readArg(in);
+        }
+        return args;
+    }
+
+    private static String readArg(InputStream in) throws IOException {
+        ByteArrayOutputStream arg = new ByteArrayOutputStream();
+        for (int c = in.read(); c != 0; c = in.read()) {
+            if (c < 0) {
+                throw new IOException("truncated request");
+            }
+            arg.write(c);
+        }
+        return arg.toString(StandardCharsets.UTF_8);
+    }
+}
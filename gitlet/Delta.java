@@ -0,0 +1,146 @@
+package gitlet;
+import java.io.ByteArrayOutputStream;
+
+/* Binary deltas between two byte arrays.  A delta starts with the sizes of
+   the base and of the result, followed by instructions that either copy a
+   range of the base or insert literal bytes. */
+class Delta {
+    private static final int BLOCK = 16;
+    private static final int MULTIPLIER = 31;
+    private static final byte INSERT = 0;
+    private static final byte COPY = 1;
+
+    /* Returns a delta that rebuilds TARGET from BASE. */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        writeVarInt(delta, base.length);
+        writeVarInt(delta, target.length);
+        int[] table = indexBlocks(base);
+        int mask = table.length - 1;
+        int power = 1;
+        for (int i = 0; i < BLOCK; i += 1) {
+            power *= MULTIPLIER;
+        }
+        int pending = 0;
+        int i = 0;
+        int hash = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (i + BLOCK <= target.length) {
+            int candidate = table[hash & mask] - 1;
+            int length = candidate >= 0 ? matchLength(base, candidate, target, i) : 0;
+            if (length >= BLOCK) {
+                int back = 0;
+                while (back < i - pending && candidate - back > 0
+                        && base[candidate - back - 1] == target[i - back - 1]) {
+                    back += 1;
+                }
+                writeInsert(delta, target, pending, i - back - pending);
+                writeCopy(delta, candidate - back, length + back);
+                i += length;
+                pending = i;
+                if (i + BLOCK <= target.length) {
+                    hash = hash(target, i);
+                }
+            } else {
+                if (i + BLOCK < target.length) {
+                    hash = hash * MULTIPLIER + (target[i + BLOCK] & 0xff) - power * (target[i] & 0xff);
+                }
+                i += 1;
+            }
+        }
+        writeInsert(delta, target, pending, target.length - pending);
+        return delta.toByteArray();
+    }
+
+    /* Returns the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = new int[]{0};
+        int baseLength = readVarInt(delta, pos);
+        if (baseLength != base.length) {
+            throw new IllegalArgumentException("delta does not match its base");
+        }
+        byte[] result = new byte[readVarInt(delta, pos)];
+        int out = 0;
+        while (pos[0] < delta.length) {
+            byte op = delta[pos[0]++];
+            if (op == COPY) {
+                int offset = readVarInt(delta, pos);
+                int length = readVarInt(delta, pos);
+                System.arraycopy(base, offset, result, out, length);
+                out += length;
+            } else {
+                int length = readVarInt(delta, pos);
+                System.arraycopy(delta, pos[0], result, out, length);
+                pos[0] += length;
+                out += length;
+            }
+        }
+        if (out != result.length) {
+            throw new IllegalArgumentException("corrupt delta");
+        }
+        return result;
+    }
+
+    /* Maps the hash of each aligned block of BASE to its offset plus one. */
+    private static int[] indexBlocks(byte[] base) {
+        int size = Integer.highestOneBit(Math.max(base.length / BLOCK, 1) * 2);
+        int[] table = new int[size];
+        for (int offset = 0; offset + BLOCK <= base.length; offset += BLOCK) {
+            int slot = hash(base, offset) & (size - 1);
+            if (table[slot] == 0) {
+                table[slot] = offset + 1;
+            }
+        }
+        return table;
+    }
+
+    private static int hash(byte[] data, int offset) {
+        int hash = 0;
+        for (int i = offset; i < offset + BLOCK; i += 1) {
+            hash = hash * MULTIPLIER + (data[i] & 0xff);
+        }
+        return hash;
+    }
+
+    private static int matchLength(byte[] base, int baseOffset, byte[] target, int targetOffset) {
+        int length = 0;
+        while (baseOffset + length < base.length && targetOffset + length < target.length
+                && base[baseOffset + length] == target[targetOffset + length]) {
+            length += 1;
+        }
+        return length;
+    }
+
+    private static void writeInsert(ByteArrayOutputStream delta, byte[] data, int offset, int length) {
+        if (length > 0) {
+            delta.write(INSERT);
+            writeVarInt(delta, length);
+            delta.write(data, offset, length);
+        }
+    }
+
+    private static void writeCopy(ByteArrayOutputStream delta, int offset, int length) {
+        delta.write(COPY);
+        writeVarInt(delta, offset);
+        writeVarInt(delta, length);
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(byte[] data, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[pos[0]++];
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
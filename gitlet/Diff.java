@@ -0,0 +1,145 @@
+package gitlet;
+import java.util.Arrays;
+
+/* Shortest edit scripts between two sequences of ints, normally interned
+   lines, by Myers' O(ND) algorithm in its linear-space form: each step
+   finds the middle snake of an optimal path by searching from both ends at
+   once, then solves the two halves on either side of it.  Elements that
+   occur in only one sequence can never match, so they are set aside before
+   the search, which keeps very different inputs from costing N * M. */
+class Diff {
+    private int[] a;
+    private int[] b;
+    private int[] matches;
+    private int[] forward;
+    private int[] backward;
+
+    /* Returns, for each element of A, the index of the element of B it is
+       matched with in a longest common subsequence, or -1. */
+    static int[] match(int[] a, int[] b) {
+        int[] result = new int[a.length];
+        Arrays.fill(result, -1);
+        int max = 0;
+        for (int x : a) {
+            max = Math.max(max, x);
+        }
+        for (int y : b) {
+            max = Math.max(max, y);
+        }
+        boolean[] inA = new boolean[max + 1];
+        boolean[] inB = new boolean[max + 1];
+        for (int x : a) {
+            inA[x] = true;
+        }
+        for (int y : b) {
+            inB[y] = true;
+        }
+        int[] indexA = common(a, inB);
+        int[] indexB = common(b, inA);
+        Diff diff = new Diff();
+        diff.a = new int[indexA.length];
+        diff.b = new int[indexB.length];
+        for (int i = 0; i < indexA.length; i += 1) {
+            diff.a[i] = a[indexA[i]];
+        }
+        for (int j = 0; j < indexB.length; j += 1) {
+            diff.b[j] = b[indexB[j]];
+        }
+        diff.matches = new int[indexA.length];
+        Arrays.fill(diff.matches, -1);
+        int size = 2 * (indexA.length + indexB.length) + 3;
+        diff.forward = new int[size];
+        diff.backward = new int[size];
+        diff.compare(0, indexA.length, 0, indexB.length);
+        for (int i = 0; i < indexA.length; i += 1) {
+            if (diff.matches[i] >= 0) {
+                result[indexA[i]] = indexB[diff.matches[i]];
+            }
+        }
+        return result;
+    }
+
+    /* Returns the indices of the elements of SEQUENCE that are in OTHER. */
+    private static int[] common(int[] sequence, boolean[] other) {
+        int[] indices = new int[sequence.length];
+        int count = 0;
+        for (int i = 0; i < sequence.length; i += 1) {
+            if (other[sequence[i]]) {
+                indices[count] = i;
+                count += 1;
+            }
+        }
+        return Arrays.copyOf(indices, count);
+    }
+
+    /* Matches A[ALO..AHI) against B[BLO..BHI). */
+    private void compare(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            matches[aLo] = bLo;
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            matches[aHi - 1] = bHi - 1;
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            return;
+        }
+        int[] snake = middleSnake(aLo, aHi, bLo, bHi);
+        compare(aLo, snake[0], bLo, snake[1]);
+        for (int x = snake[0], y = snake[1]; x < snake[2]; x += 1, y += 1) {
+            matches[x] = y;
+        }
+        compare(snake[2], aHi, snake[3], bHi);
+    }
+
+    /* Returns {x0, y0, x1, y1}, the start and end in A and B of the middle
+       snake of a shortest edit script from A[ALO..AHI) to B[BLO..BHI),
+       whose first and last elements differ. */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int offset = n + m + 1;
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        for (int d = 0; d <= (n + m + 1) / 2; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || k != d && forward[offset + k - 1] < forward[offset + k + 1]
+                        ? forward[offset + k + 1] : forward[offset + k - 1] + 1;
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[offset + k] = x;
+                if (odd && delta - k >= -(d - 1) && delta - k <= d - 1
+                        && x + backward[offset + delta - k] >= n) {
+                    return new int[]{aLo + x0, bLo + y0, aLo + x, bLo + y};
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || k != d && backward[offset + k - 1] < backward[offset + k + 1]
+                        ? backward[offset + k + 1] : backward[offset + k - 1] + 1;
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[offset + k] = x;
+                if (!odd && delta - k >= -d && delta - k <= d
+                        && x + forward[offset + delta - k] >= n) {
+                    return new int[]{aHi - x, bHi - y, aHi - x0, bHi - y0};
+                }
+            }
+        }
+        throw new IllegalStateException("no middle snake");
+    }
+}
@@ -0,0 +1,162 @@
+package gitlet;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/* A line-by-line three-way merge in the manner of diff3.  The base version
+   of a file is diffed against each side, and the lines that both diffs
+   leave unchanged cut the three versions into chunks.  A chunk changed on
+   one side only, or changed the same way on both, is taken as it is; only
+   chunks changed differently on both sides are written between conflict
+   markers, and then without the lines the two sides share at either end.
+
+   Lines are read from streams into a LineTable, so each distinct line is
+   held once however many times it occurs in the three versions, and the
+   diffs themselves run over arrays of ints. */
+class LineMerge {
+    private static final byte[] OURS_MARKER = "<<<<<<< HEAD\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] SEPARATOR = "=======\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] THEIRS_MARKER = ">>>>>>>\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private LineTable lines = new LineTable();
+    private OutputStream out;
+    private boolean atLineStart = true;
+
+    /* Writes to OUT the merge of OURS and THEIRS, both changed from BASE,
+       which may be null if the file did not exist before.  Returns the
+       number of conflicting regions written, or -1 if any version is binary
+       (holds a NUL byte), in which case nothing is written. */
+    static int merge(InputStream base, InputStream ours, InputStream theirs,
+                     OutputStream out) throws IOException {
+        LineMerge merge = new LineMerge();
+        int[] o = base == null ? new int[0] : merge.lines.read(base);
+        int[] a = merge.lines.read(ours);
+        int[] b = merge.lines.read(theirs);
+        if (merge.lines.binary()) {
+            return -1;
+        }
+        merge.out = new BufferedOutputStream(out, Utils.BUFFER_SIZE);
+        int conflicts = merge.merge(o, a, b);
+        merge.out.flush();
+        return conflicts;
+    }
+
+    /* Writes OURS and THEIRS whole between conflict markers to OUT, in the
+       format merge uses, for versions that cannot be merged line by line.
+       Either may be null for a version that does not exist. */
+    static void conflict(InputStream ours, InputStream theirs, OutputStream out) throws IOException {
+        LineMerge merge = new LineMerge();
+        merge.out = new BufferedOutputStream(out, Utils.BUFFER_SIZE);
+        merge.marker(OURS_MARKER);
+        merge.copy(ours);
+        merge.marker(SEPARATOR);
+        merge.copy(theirs);
+        merge.marker(THEIRS_MARKER);
+        merge.out.flush();
+    }
+
+    /* Writes the merge of A and B with base O and returns the number of
+       conflicts.  Walks the three versions together: where the next lines
+       of all three are matched with each other the chunk is stable;
+       otherwise the chunk runs up to the next base line matched on both
+       sides. */
+    private int merge(int[] o, int[] a, int[] b) throws IOException {
+        int[] oa = Diff.match(o, a);
+        int[] ob = Diff.match(o, b);
+        int conflicts = 0;
+        int lo = 0;
+        int la = 0;
+        int lb = 0;
+        while (lo < o.length || la < a.length || lb < b.length) {
+            if (lo < o.length && oa[lo] == la && ob[lo] == lb) {
+                while (lo < o.length && oa[lo] == la && ob[lo] == lb) {
+                    write(o[lo]);
+                    lo += 1;
+                    la += 1;
+                    lb += 1;
+                }
+                continue;
+            }
+            int next = lo;
+            while (next < o.length && (oa[next] < 0 || ob[next] < 0)) {
+                next += 1;
+            }
+            int na = next < o.length ? oa[next] : a.length;
+            int nb = next < o.length ? ob[next] : b.length;
+            if (same(o, lo, next, a, la, na)) {
+                write(b, lb, nb);
+            } else if (same(o, lo, next, b, lb, nb) || same(a, la, na, b, lb, nb)) {
+                write(a, la, na);
+            } else {
+                conflict(a, la, na, b, lb, nb);
+                conflicts += 1;
+            }
+            lo = next;
+            la = na;
+            lb = nb;
+        }
+        return conflicts;
+    }
+
+    private static boolean same(int[] x, int xLo, int xHi, int[] y, int yLo, int yHi) {
+        return Arrays.equals(x, xLo, xHi, y, yLo, yHi);
+    }
+
+    /* Writes the conflicting chunks A[ALO..AHI) and B[BLO..BHI), keeping
+       lines common to the start or end of both outside the markers. */
+    private void conflict(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi) throws IOException {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            write(a[aLo]);
+            aLo += 1;
+            bLo += 1;
+        }
+        int aEnd = aHi;
+        int bEnd = bHi;
+        while (aEnd > aLo && bEnd > bLo && a[aEnd - 1] == b[bEnd - 1]) {
+            aEnd -= 1;
+            bEnd -= 1;
+        }
+        marker(OURS_MARKER);
+        write(a, aLo, aEnd);
+        marker(SEPARATOR);
+        write(b, bLo, bEnd);
+        marker(THEIRS_MARKER);
+        write(a, aEnd, aHi);
+    }
+
+    private void marker(byte[] marker) throws IOException {
+        if (!atLineStart) {
+            out.write('\n');
+        }
+        out.write(marker);
+        atLineStart = true;
+    }
+
+    private void copy(InputStream in) throws IOException {
+        if (in == null) {
+            return;
+        }
+        byte[] buffer = new byte[Utils.BUFFER_SIZE];
+        for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+            if (n > 0) {
+                out.write(buffer, 0, n);
+                atLineStart = buffer[n - 1] == '\n';
+            }
+        }
+    }
+
+    private void write(int[] x, int lo, int hi) throws IOException {
+        for (int i = lo; i < hi; i += 1) {
+            write(x[i]);
+        }
+    }
+
+    private void write(int id) throws IOException {
+        String line = lines.line(id);
+        out.write(line.getBytes(StandardCharsets.ISO_8859_1));
+        atLineStart = line.charAt(line.length() - 1) == '\n';
+    }
+}
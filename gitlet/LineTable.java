@@ -0,0 +1,74 @@
+package gitlet;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/* The lines of some files, read from streams and interned so that each
+   distinct line is held once however often it occurs, and a file is just an
+   array of ints that Diff can compare.  Lines keep their terminators (the
+   last line of a file may have none) and are held as Latin-1 strings, which
+   round-trip any bytes unchanged. */
+class LineTable {
+    private Map<String, Integer> ids = new HashMap<>();
+    private List<String> lines = new ArrayList<>();
+    private boolean binary;
+
+    /* Returns the ids of the lines of IN, which is read to its end. */
+    int[] read(InputStream in) throws IOException {
+        byte[] buffer = new byte[Utils.BUFFER_SIZE];
+        int[] result = new int[1024];
+        int count = 0;
+        byte[] line = new byte[256];
+        int length = 0;
+        for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+            for (int i = 0; i < n; i += 1) {
+                byte c = buffer[i];
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, 2 * length);
+                }
+                line[length] = c;
+                length += 1;
+                binary |= c == 0;
+                if (c == '\n') {
+                    if (count == result.length) {
+                        result = Arrays.copyOf(result, 2 * count);
+                    }
+                    result[count] = intern(new String(line, 0, length, StandardCharsets.ISO_8859_1));
+                    count += 1;
+                    length = 0;
+                }
+            }
+        }
+        if (length > 0) {
+            result = Arrays.copyOf(result, count + 1);
+            result[count] = intern(new String(line, 0, length, StandardCharsets.ISO_8859_1));
+            count += 1;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private int intern(String line) {
+        Integer id = ids.get(line);
+        if (id == null) {
+            id = lines.size();
+            ids.put(line, id);
+            lines.add(line);
+        }
+        return id;
+    }
+
+    /* Returns the line with ID, terminator included. */
+    String line(int id) {
+        return lines.get(id);
+    }
+
+    /* Returns true if any file read so far holds a NUL byte. */
+    boolean binary() {
+        return binary;
+    }
+}
@@ -1,17 +1,89 @@
 package gitlet;
 import java.io.*;
+import java.util.Set;
 
 public class Main {
     private static CommitTree commitTree;
+    /* Commands that never change the references or staging area, and so run
+       without the repository lock, never making a writer wait.  What they
+       added to the caches is saved only if the lock is free when they are
+       done, since a concurrent writer may otherwise be saving those caches
+       too. */
+    private static final Set<String> READ_ONLY = Set.of("log", "global-log", "find", "status", "diff", "daemon");
+    private static RepositoryLock lock;
+    /* While a batch runs, its commands share one CommitTree, which is only
+       saved at checkpoints. */
+    private static boolean batch;
+    private static boolean unsaved;
 
     private static void serializeCommitTree() {
-        File commitTreeFile = new File(".gitlet/commitTree");
+        if (batch) {
+            unsaved = true;
+        } else {
+            commitTree.save();
+        }
+    }
+
+    /* Starts or ends a batch.  A batch holds the repository lock from its
+       first command to its end, which saves its changes. */
+    static void setBatch(boolean running) {
+        if (!running) {
+            try {
+                checkpoint();
+            } finally {
+                commitTree = null;
+                unlock();
+            }
+        }
+        batch = running;
+    }
+
+    /* Saves the changes made by the commands of the batch so far. */
+    static void checkpoint() {
+        if (unsaved) {
+            commitTree.save();
+            unsaved = false;
+        }
+    }
+
+    /* Forgets the changes made by the batch since its last checkpoint. */
+    static void abandonBatch() {
+        unsaved = false;
+        commitTree = null;
+        batch = false;
+        unlock();
+    }
+
+    private static void lock() {
+        if (lock == null) {
+            lock = RepositoryLock.acquire(new File(".gitlet"));
+        }
+    }
+
+    private static void unlock() {
+        if (lock != null) {
+            lock.close();
+            lock = null;
+        }
+    }
+
+    /* Saves the caches a read-only command filled, the stat index and, if
+       ALL, the commit graph too, if the lock is held or free. */
+    private static void saveCaches(boolean all) {
+        RepositoryLock cacheLock = lock != null ? lock : RepositoryLock.tryAcquire(new File(".gitlet"));
+        if (cacheLock == null) {
+            return;
+        }
         try {
-            ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(commitTreeFile));
-            out.writeObject(commitTree);
-            out.close();
-        } catch (IOException e) {
-            System.out.println("error.");
+            if (all) {
+                commitTree.saveCaches();
+            } else {
+                commitTree.saveIndex();
+            }
+        } finally {
+            if (cacheLock != lock) {
+                cacheLock.close();
+            }
         }
     }
 
@@ -24,15 +96,10 @@ public class Main {
     }
 
     private static void deSerializeCommitTree() {
-        File commitTreeFile = new File(".gitlet/commitTree");
-        try {
-            ObjectInputStream inp = new ObjectInputStream(new FileInputStream(commitTreeFile));
-            commitTree = (CommitTree) inp.readObject();
-            inp.close();
-        } catch (IOException | ClassNotFoundException excp) {
-            System.out.println("error.");
-            commitTree = null;
+        if (batch && commitTree != null) {
+            return;
         }
+        commitTree = Daemon.load(new File(".gitlet"));
     }
 
     private static String[] getOperands(String[] args) {
@@ -47,95 +114,137 @@ public class Main {
     }
 
     public static void main(String[] args) {
+        if (args.length > 0 && !(args.length == 1 && args[0].equals("daemon")) && !args[0].equals("batch")
+                && Daemon.forward(new File(".gitlet"), args)) {
+            return;
+        }
+        run(args);
+    }
+
+    static void run(String[] args) {
         if (args.length == 0) {
             System.out.println("Please enter a command.");
             return;
         }
+        if (args[0].equals("batch") || args[0].equals("daemon") && batch) {
+            if (batch) {
+                System.out.println("Cannot run " + args[0] + " within a batch.");
+            } else {
+                Batch.run(getOperands(args));
+            }
+            return;
+        }
         if (args.length == 1 && args[0].equals("init")) {
             if (gitletInitialized()) {
                 System.out.println("A Gitlet version-control system already exists in the current directory.");
                 return;
             }
-            commitTree = new CommitTree();
             File directory = new File(".gitlet");
             directory.mkdir();
+            commitTree = new CommitTree(directory);
             serializeCommitTree();
         } else {
             if (!gitletInitialized()) {
                 System.out.println("Not in an initialized Gitlet directory.");
                 return;
             }
-            deSerializeCommitTree();
-            if (commitTree == null) {
-                System.out.println("CommitTree not found");
-                return;
+            if (batch || !READ_ONLY.contains(args[0])) {
+                lock();
             }
-            switch (args[0]) {
-                case "add":
-                    addCommand(args);
-                    break;
-                case "commit":
-                    commitCommand(args);
-                    break;
-                case "rm":
-                    rmCommand(args);
-                    break;
-                case "log":
-                    logCommand(args);
-                    break;
-                case "global-log":
-                    globalLogCommand(args);
-                    break;
-                case "find":
-                    findCommand(args);
-                    break;
-                case "status":
-                    statusCommand(args);
-                    break;
-                case "checkout":
-                    checkoutCommand(args);
-                    break;
-                case "branch":
-                    branchCommand(args);
-                    break;
-                case "rm-branch":
-                    rmBranchCommand(args);
-                    break;
-                case "reset":
-                    resetCommand(args);
-                    break;
-                case "merge":
-                    mergeCommand(args);
-                    break;
-                case "add-remote":
-                    addRemoteCommand(args);
-                    break;
-                case "rm-remote":
-                    rmRemoteCommand(args);
-                    break;
-                case "push":
-                    pushCommand(args);
-                    break;
-                case "fetch":
-                    fetchCommand(args);
-                    break;
-                case "pull":
-                    pullCommand(args);
-                    break;
-                case "clone":
-                    cloneCommand(args);
-                    break;
-                default:
-                    System.out.println("No command with that name exists.");
+            try {
+                command(args);
+            } finally {
+                if (!batch) {
+                    unlock();
+                }
             }
         }
     }
 
+    private static void command(String[] args) {
+        deSerializeCommitTree();
+        if (commitTree == null) {
+            System.out.println("CommitTree not found");
+            return;
+        }
+        switch (args[0]) {
+            case "add":
+                addCommand(args);
+                break;
+            case "commit":
+                commitCommand(args);
+                break;
+            case "rm":
+                rmCommand(args);
+                break;
+            case "log":
+                logCommand(args);
+                break;
+            case "global-log":
+                globalLogCommand(args);
+                break;
+            case "find":
+                findCommand(args);
+                break;
+            case "status":
+                statusCommand(args);
+                break;
+            case "diff":
+                diffCommand(args);
+                break;
+            case "checkout":
+                checkoutCommand(args);
+                break;
+            case "branch":
+                branchCommand(args);
+                break;
+            case "rm-branch":
+                rmBranchCommand(args);
+                break;
+            case "reset":
+                resetCommand(args);
+                break;
+            case "merge":
+                mergeCommand(args);
+                break;
+            case "repack":
+                repackCommand(args);
+                break;
+            case "gc":
+                gcCommand(args);
+                break;
+            case "add-remote":
+                addRemoteCommand(args);
+                break;
+            case "rm-remote":
+                rmRemoteCommand(args);
+                break;
+            case "push":
+                pushCommand(args);
+                break;
+            case "fetch":
+                fetchCommand(args);
+                break;
+            case "pull":
+                pullCommand(args);
+                break;
+            case "clone":
+                cloneCommand(args);
+                break;
+            case "daemon":
+                daemonCommand(args);
+                break;
+            default:
+                System.out.println("No command with that name exists.");
+        }
+    }
+
     private static void addCommand(String[] args) {
-        if (commandIsNotValid(args, 2)) {
+        if (args.length < 2) {
+            System.out.println("Incorrect operands.");
             return;
         }
-        commitTree.add(args[1]);
+        commitTree.add(getOperands(args));
         serializeCommitTree();
     }
 
@@ -159,24 +268,30 @@ public class Main {
     }
 
     private static void logCommand(String[] args) {
-        if (commandIsNotValid(args, 1)) {
+        if (!commitTree.log(getOperands(args))) {
+            System.out.println("Incorrect operands.");
             return;
         }
-        commitTree.log();
+        saveCaches(true);
     }
 
     private static void globalLogCommand(String[] args) {
-        if (commandIsNotValid(args, 1)) {
-            return;
+        if (!commitTree.globalLog(getOperands(args))) {
+            System.out.println("Incorrect operands.");
         }
-        commitTree.globalLog();
     }
 
     private static void findCommand(String[] args) {
-        if (commandIsNotValid(args, 2)) {
+        if (args.length == 3 && args[1].equals("--prefix")) {
+            commitTree.findPrefix(args[2]);
+        } else if (args.length == 3 && args[1].equals("--words")) {
+            commitTree.findWords(args[2]);
+        } else if (commandIsNotValid(args, 2)) {
             return;
+        } else {
+            commitTree.find(args[1]);
         }
-        commitTree.find(args[1]);
+        saveCaches(true);
     }
 
     private static void statusCommand(String[] args) {
@@ -184,6 +299,15 @@ public class Main {
             return;
         }
         commitTree.status();
+        saveCaches(false);
+    }
+
+    private static void diffCommand(String[] args) {
+        if (!commitTree.diff(getOperands(args))) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        saveCaches(false);
     }
 
     private static void checkoutCommand(String[] args) {
@@ -227,6 +351,21 @@ public class Main {
         serializeCommitTree();
     }
 
+    private static void repackCommand(String[] args) {
+        if (commandIsNotValid(args, 1)) {
+            return;
+        }
+        commitTree.repack();
+    }
+
+    private static void gcCommand(String[] args) {
+        if (!commitTree.gc(getOperands(args))) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        commitTree.saveCaches();
+    }
+
     private static void addRemoteCommand(String[] args) {
         if (commandIsNotValid(args, 3)) {
             return;
@@ -271,5 +410,14 @@ public class Main {
             return;
         }
         commitTree.clone(args[1]);
+        commitTree = Daemon.load(new File(".gitlet"));
+    }
+
+    private static void daemonCommand(String[] args) {
+        if (args.length == 2 && args[1].equals("stop")) {
+            System.out.println("No gitlet daemon is running.");
+        } else if (!commandIsNotValid(args, 1)) {
+            Daemon.serve(new File(".gitlet"));
+        }
     }
- }
+}
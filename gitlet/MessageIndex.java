@@ -0,0 +1,353 @@
+package gitlet;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/* An inverted index from commit messages to commit ids, answering exact,
+   prefix and word queries by binary search instead of reading every commit.
+   Ids come back sorted, the order in which find has always listed them.
+
+   The index has two parts.  .gitlet/message-index is an immutable, memory-
+   mapped table holding every whole message and every word (lower-cased
+   runs of letters and digits) in sorted order, each with the commits that
+   contain it.  .gitlet/message-journal lists the commits stored since the
+   table was written; storing a commit only appends to it.  When the journal
+   grows past an eighth of the table, save folds it into a new table.  If
+   neither file exists, as in a fresh clone, the index is built in memory
+   from the commits directory.  Like every other change to the index, it is
+   only written out by a command holding the repository lock, when it
+   stores a commit or saves.
+
+   Table:   "GMIX" version, commit count C, message count M, word count W;
+            the C sorted 20-byte ids; M then W entries of (key offset,
+            postings offset), each sorted by key; then the keys, each an int
+            length and UTF-8 bytes; then the postings, each an int count and
+            that many indices into the ids.
+   Journal: per commit, its 20-byte id, an int length and the UTF-8 message. */
+public class MessageIndex {
+    private static final int VERSION = 1;
+    private static final int HEADER = 4 * 5;
+    private static final int MIN_JOURNAL = 256;
+
+    private File indexFile;
+    private File journalFile;
+    private File commitsDir;
+    private ByteBuffer table;
+    private int commits;
+    private int messages;
+    private int words;
+    private Map<ObjectId, String> journal;
+    /* True if the index was built from the commits directory and is held
+       only in journal until it is written. */
+    private boolean built;
+
+    MessageIndex(File gitletDir, File commitsDir) {
+        indexFile = new File(gitletDir, "message-index");
+        journalFile = new File(gitletDir, "message-journal");
+        this.commitsDir = commitsDir;
+    }
+
+    /* Records that commit ID has message MESSAGE. */
+    public void add(ObjectId id, String message) {
+        buildIfMissing();
+        if (built) {
+            write(allMessages());
+        }
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(ObjectId.LENGTH + 4 + bytes.length);
+        byte[] raw = new byte[ObjectId.LENGTH];
+        id.copyRawTo(raw, 0);
+        record.put(raw).putInt(bytes.length).put(bytes);
+        try {
+            Files.write(journalFile.toPath(), record.array(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (journal != null) {
+            journal.put(id, message);
+        }
+    }
+
+    /* Forgets the commits in GONE, which have been deleted. */
+    void remove(Set<ObjectId> gone) {
+        loadTable();
+        SortedMap<ObjectId, String> all = allMessages();
+        if (all.keySet().removeAll(gone)) {
+            write(all);
+        }
+    }
+
+    /* Folds the journal into a new table once it has grown large. */
+    void save() {
+        if (built) {
+            if (!indexFile.isFile() && !journalFile.isFile()) {
+                write(allMessages());
+            }
+            return;
+        }
+        if (!journalFile.isFile()) {
+            return;
+        }
+        loadTable();
+        if (table != null && journal().size() <= Math.max(MIN_JOURNAL, commits / 8)) {
+            return;
+        }
+        write(allMessages());
+    }
+
+    /* Returns the commits whose message is exactly MESSAGE. */
+    public SortedSet<ObjectId> exact(String message) {
+        SortedSet<ObjectId> result = new TreeSet<>();
+        loadTable();
+        if (table != null) {
+            int i = lowerBound(0, messages, key(message));
+            if (i < messages && Arrays.equals(keyAt(0, i), key(message))) {
+                addPostings(0, i, result);
+            }
+        }
+        for (Map.Entry<ObjectId, String> entry : journal().entrySet()) {
+            if (entry.getValue().equals(message)) {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    /* Returns the commits whose message starts with PREFIX. */
+    public SortedSet<ObjectId> prefix(String prefix) {
+        SortedSet<ObjectId> result = new TreeSet<>();
+        loadTable();
+        if (table != null) {
+            byte[] key = key(prefix);
+            for (int i = lowerBound(0, messages, key); i < messages && startsWith(keyAt(0, i), key); i += 1) {
+                addPostings(0, i, result);
+            }
+        }
+        for (Map.Entry<ObjectId, String> entry : journal().entrySet()) {
+            if (entry.getValue().startsWith(prefix)) {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    /* Returns the commits whose message contains every word of QUERY. */
+    public SortedSet<ObjectId> words(String query) {
+        SortedSet<ObjectId> result = null;
+        for (String word : words(query, new TreeSet<>())) {
+            SortedSet<ObjectId> matches = new TreeSet<>();
+            loadTable();
+            if (table != null) {
+                int i = lowerBound(messages, words, key(word));
+                if (i < words && Arrays.equals(keyAt(messages, i), key(word))) {
+                    addPostings(messages, i, matches);
+                }
+            }
+            for (Map.Entry<ObjectId, String> entry : journal().entrySet()) {
+                if (words(entry.getValue(), new HashSet<>()).contains(word)) {
+                    matches.add(entry.getKey());
+                }
+            }
+            if (result == null) {
+                result = matches;
+            } else {
+                result.retainAll(matches);
+            }
+        }
+        return result == null ? new TreeSet<>() : result;
+    }
+
+    private static <T extends Collection<String>> T words(String text, T result) {
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+
+    private static byte[] key(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static boolean startsWith(byte[] key, byte[] prefix) {
+        return key.length >= prefix.length && Arrays.equals(key, 0, prefix.length, prefix, 0, prefix.length);
+    }
+
+    /* Returns the first entry from FIRST to FIRST+COUNT of the table whose key
+       is not below KEY, relative to FIRST. */
+    private int lowerBound(int first, int count, byte[] key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Arrays.compareUnsigned(keyAt(first, mid), key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int entryOffset(int first, int i) {
+        return HEADER + commits * ObjectId.LENGTH + (first + i) * 8;
+    }
+
+    private byte[] keyAt(int first, int i) {
+        int offset = table.getInt(entryOffset(first, i));
+        byte[] key = new byte[table.getInt(offset)];
+        table.get(offset + 4, key);
+        return key;
+    }
+
+    private void addPostings(int first, int i, Collection<ObjectId> result) {
+        int offset = table.getInt(entryOffset(first, i) + 4);
+        int count = table.getInt(offset);
+        byte[] raw = new byte[ObjectId.LENGTH];
+        for (int j = 0; j < count; j += 1) {
+            table.get(HEADER + table.getInt(offset + 4 + 4 * j) * ObjectId.LENGTH, raw);
+            result.add(ObjectId.fromRaw(raw, 0));
+        }
+    }
+
+    private void loadTable() {
+        buildIfMissing();
+        if (table != null || !indexFile.isFile()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.getInt(0) != 0x474d4958 || mapped.getInt(4) != VERSION) {
+                throw new IllegalArgumentException("bad message index");
+            }
+            commits = mapped.getInt(8);
+            messages = mapped.getInt(12);
+            words = mapped.getInt(16);
+            table = mapped;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private Map<ObjectId, String> journal() {
+        if (journal == null) {
+            journal = new HashMap<>();
+            if (journalFile.isFile()) {
+                ByteBuffer data = ByteBuffer.wrap(Utils.readContents(journalFile));
+                byte[] raw = new byte[ObjectId.LENGTH];
+                while (data.remaining() >= ObjectId.LENGTH + 4) {
+                    data.get(raw);
+                    int length = data.getInt();
+                    if (length > data.remaining()) {
+                        break;
+                    }
+                    byte[] message = new byte[length];
+                    data.get(message);
+                    journal.put(ObjectId.fromRaw(raw, 0), new String(message, StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return journal;
+    }
+
+    /* Reads every commit's message into the journal if there is no index. */
+    private void buildIfMissing() {
+        if (built || table != null || indexFile.isFile() || journalFile.isFile()) {
+            return;
+        }
+        SortedMap<ObjectId, String> all = new TreeMap<>();
+        List<String> ids = Utils.plainFilenamesIn(commitsDir);
+        if (ids != null) {
+            for (String id : ids) {
+                if (ObjectId.isId(id)) {
+                    all.put(ObjectId.fromString(id),
+                            Utils.readObject(new File(commitsDir, id), CommitNode.class).logMessage());
+                }
+            }
+        }
+        journal = new HashMap<>(all);
+        built = true;
+    }
+
+    /* Returns the message of every indexed commit. */
+    private SortedMap<ObjectId, String> allMessages() {
+        SortedMap<ObjectId, String> all = new TreeMap<>();
+        if (table != null) {
+            List<ObjectId> ids = new ArrayList<>();
+            byte[] raw = new byte[ObjectId.LENGTH];
+            for (int i = 0; i < commits; i += 1) {
+                table.get(HEADER + i * ObjectId.LENGTH, raw);
+                ids.add(ObjectId.fromRaw(raw, 0));
+            }
+            for (int i = 0; i < messages; i += 1) {
+                String message = new String(keyAt(0, i), StandardCharsets.UTF_8);
+                int offset = table.getInt(entryOffset(0, i) + 4);
+                for (int j = 0; j < table.getInt(offset); j += 1) {
+                    all.put(ids.get(table.getInt(offset + 4 + 4 * j)), message);
+                }
+            }
+        }
+        all.putAll(journal());
+        return all;
+    }
+
+    /* Replaces the table with one holding ALL and empties the journal. */
+    private void write(SortedMap<ObjectId, String> all) {
+        Map<ObjectId, Integer> positions = new HashMap<>();
+        Comparator<byte[]> order = Arrays::compareUnsigned;
+        TreeMap<byte[], List<Integer>> messageKeys = new TreeMap<>(order);
+        TreeMap<byte[], List<Integer>> wordKeys = new TreeMap<>(order);
+        for (Map.Entry<ObjectId, String> entry : all.entrySet()) {
+            int position = positions.size();
+            positions.put(entry.getKey(), position);
+            messageKeys.computeIfAbsent(key(entry.getValue()), k -> new ArrayList<>()).add(position);
+            for (String word : words(entry.getValue(), new TreeSet<>())) {
+                wordKeys.computeIfAbsent(key(word), k -> new ArrayList<>()).add(position);
+            }
+        }
+        int keysSize = 0;
+        int postingsSize = 0;
+        for (TreeMap<byte[], List<Integer>> keys : List.of(messageKeys, wordKeys)) {
+            for (Map.Entry<byte[], List<Integer>> entry : keys.entrySet()) {
+                keysSize += 4 + entry.getKey().length;
+                postingsSize += 4 + 4 * entry.getValue().size();
+            }
+        }
+        int entries = messageKeys.size() + wordKeys.size();
+        int keyOffset = HEADER + all.size() * ObjectId.LENGTH + entries * 8;
+        int postingsOffset = keyOffset + keysSize;
+        ByteBuffer data = ByteBuffer.allocate(postingsOffset + postingsSize);
+        data.putInt(0x474d4958).putInt(VERSION).putInt(all.size()).putInt(messageKeys.size()).putInt(wordKeys.size());
+        byte[] raw = new byte[ObjectId.LENGTH];
+        for (ObjectId id : all.keySet()) {
+            id.copyRawTo(raw, 0);
+            data.put(raw);
+        }
+        int keyAt = keyOffset;
+        int postingsAt = postingsOffset;
+        for (TreeMap<byte[], List<Integer>> keys : List.of(messageKeys, wordKeys)) {
+            for (Map.Entry<byte[], List<Integer>> entry : keys.entrySet()) {
+                data.putInt(keyAt).putInt(postingsAt);
+                data.putInt(keyAt, entry.getKey().length).put(keyAt + 4, entry.getKey());
+                data.putInt(postingsAt, entry.getValue().size());
+                for (int j = 0; j < entry.getValue().size(); j += 1) {
+                    data.putInt(postingsAt + 4 + 4 * j, entry.getValue().get(j));
+                }
+                keyAt += 4 + entry.getKey().length;
+                postingsAt += 4 + 4 * entry.getValue().size();
+            }
+        }
+        Utils.writeContents(indexFile, data.array());
+        journalFile.delete();
+        journal = new HashMap<>();
+        built = false;
+        table = null;
+        loadTable();
+    }
+}
@@ -0,0 +1,110 @@
+package gitlet;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/* The SHA-1 id of a blob, tree or commit, held as its 20 raw bytes rather
+   than as 40 hexadecimal characters.  Ids are immutable, compare as unsigned
+   byte strings (the same order as their hex names), and cache their hash
+   code, which is simply taken from the leading bytes since SHA-1 output is
+   already uniformly distributed. */
+public final class ObjectId implements Comparable<ObjectId>, Serializable {
+    static final int LENGTH = 20;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final byte[] bytes;
+    private transient int hash;
+
+    private ObjectId(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /* Returns the id whose raw bytes are BYTES[OFFSET .. OFFSET+20). */
+    static ObjectId fromRaw(byte[] bytes, int offset) {
+        return new ObjectId(Arrays.copyOfRange(bytes, offset, offset + LENGTH));
+    }
+
+    /* Returns the id named by the 40 hexadecimal digits NAME.  Throws
+       IllegalArgumentException if NAME is not a full id. */
+    static ObjectId fromString(String name) {
+        if (!isId(name)) {
+            throw new IllegalArgumentException("not an object id: " + name);
+        }
+        byte[] bytes = new byte[LENGTH];
+        for (int i = 0; i < LENGTH; i += 1) {
+            bytes[i] = (byte) (Character.digit(name.charAt(2 * i), 16) << 4
+                    | Character.digit(name.charAt(2 * i + 1), 16));
+        }
+        return new ObjectId(bytes);
+    }
+
+    /* Returns true if NAME is 40 lower-case hexadecimal digits. */
+    static boolean isId(String name) {
+        if (name == null || name.length() != 2 * LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i += 1) {
+            char c = name.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* Returns BYTES as lower-case hexadecimal digits. */
+    static String hex(byte[] bytes) {
+        char[] digits = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i += 1) {
+            digits[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            digits[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(digits);
+    }
+
+    public String name() {
+        return hex(bytes);
+    }
+
+    /* Returns the first byte of this id, from 0 to 255. */
+    public int firstByte() {
+        return bytes[0] & 0xff;
+    }
+
+    /* Returns byte I of this id, from 0 to 255. */
+    public int byteAt(int i) {
+        return bytes[i] & 0xff;
+    }
+
+    /* Copies the raw bytes of this id into OUT at OFFSET. */
+    public void copyRawTo(byte[] out, int offset) {
+        System.arraycopy(bytes, 0, out, offset, LENGTH);
+    }
+
+    @Override
+    public int compareTo(ObjectId other) {
+        for (int i = 0; i < LENGTH; i += 1) {
+            if (bytes[i] != other.bytes[i]) {
+                return (bytes[i] & 0xff) - (other.bytes[i] & 0xff);
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof ObjectId && Arrays.equals(bytes, ((ObjectId) other).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        if (hash == 0) {
+            hash = (bytes[0] & 0xff) << 24 | (bytes[1] & 0xff) << 16 | (bytes[2] & 0xff) << 8 | (bytes[3] & 0xff);
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return name();
+    }
+}
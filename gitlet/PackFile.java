@@ -0,0 +1,333 @@
+package gitlet;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/* A pack of blobs together with its index.  The pack holds each blob either
+   whole or as a Delta against another blob of the same pack, deflated.  The
+   index is sorted by id and memory-mapped, so a lookup is a binary search
+   within the range selected by the id's first byte.
+
+   Pack:  "GPCK" version count, then per blob: type, base id (deltas only),
+          8-byte uncompressed length, 8-byte compressed length, compressed
+          data.  Whole blobs are streamed in and out, so they may be of any
+          size; deltas are only made between blobs small enough to hold in
+          memory.
+   Index: "GIDX" version, 256 cumulative counts by first id byte, the sorted
+          20-byte ids, then the 8-byte pack offset of each id. */
+class PackFile {
+    static final int MAX_DEPTH = 50;
+    private static final int ID_LENGTH = 20;
+    private static final int FANOUT = 256;
+    private static final int HEADER = 4 + 4 + 4 * FANOUT;
+    private static final int VERSION = 2;
+    private static final byte FULL = 0;
+    private static final byte DELTA = 1;
+    private static final int ENTRY_HEADER = 1 + ID_LENGTH + 8 + 8;
+
+    private File packFile;
+    private File indexFile;
+    private MappedByteBuffer index;
+    private int count;
+
+    PackFile(File indexFile) {
+        this.indexFile = indexFile;
+        String name = indexFile.getName();
+        packFile = new File(indexFile.getParentFile(), name.substring(0, name.length() - ".idx".length()) + ".pack");
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (index.getInt(0) != 0x47494458 || index.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("bad pack index " + name);
+        }
+        count = index.getInt(HEADER - 4);
+    }
+
+    public File packFile() {
+        return packFile;
+    }
+
+    public File indexFile() {
+        return indexFile;
+    }
+
+    public boolean contains(ObjectId id) {
+        return find(id) >= 0;
+    }
+
+    /* Returns the ids of every blob in this pack, in sorted order. */
+    public List<ObjectId> ids() {
+        List<ObjectId> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i += 1) {
+            ids.add(idAt(i));
+        }
+        return ids;
+    }
+
+    private ObjectId idAt(int position) {
+        byte[] id = new byte[ID_LENGTH];
+        index.get(HEADER + position * ID_LENGTH, id);
+        return ObjectId.fromRaw(id, 0);
+    }
+
+    /* Returns a stream of the contents of the blob ID, or null if it is not
+       in this pack. */
+    public InputStream open(ObjectId id) {
+        int position = find(id);
+        if (position < 0) {
+            return null;
+        }
+        try {
+            FileChannel pack = FileChannel.open(packFile.toPath(), StandardOpenOption.READ);
+            ByteBuffer header = readHeader(pack, offset(position));
+            if (header.get(0) == FULL) {
+                pack.position(offset(position) + header.position());
+                return new InflaterInputStream(new BufferedInputStream(Channels.newInputStream(pack),
+                        Utils.BUFFER_SIZE));
+            }
+            try {
+                return new ByteArrayInputStream(read(pack, offset(position)));
+            } finally {
+                pack.close();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private long offset(int position) {
+        return index.getLong(HEADER + count * ID_LENGTH + position * 8);
+    }
+
+    /* Returns the header of the entry at OFFSET, positioned after it. */
+    private ByteBuffer readHeader(FileChannel pack, long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER);
+        pack.read(header, offset);
+        header.flip();
+        if (header.get() == DELTA) {
+            header.position(header.position() + ID_LENGTH);
+        }
+        if (header.remaining() < 16) {
+            throw new IllegalArgumentException("truncated pack " + packFile.getName());
+        }
+        header.position(header.position() + 16);
+        return header;
+    }
+
+    /* Returns the contents of the entry at OFFSET, which must be small enough
+       to hold in memory. */
+    private byte[] read(FileChannel pack, long offset) throws IOException {
+        ByteBuffer header = readHeader(pack, offset);
+        int end = header.position();
+        long length = header.getLong(end - 16);
+        long compressedLength = header.getLong(end - 8);
+        if (length > Integer.MAX_VALUE || compressedLength > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("blob too large to load into memory");
+        }
+        ByteBuffer compressed = ByteBuffer.allocate((int) compressedLength);
+        long dataOffset = offset + end;
+        while (compressed.hasRemaining()) {
+            if (pack.read(compressed, dataOffset + compressed.position()) < 0) {
+                throw new IllegalArgumentException("truncated pack " + packFile.getName());
+            }
+        }
+        byte[] data = inflate(compressed.array(), (int) length);
+        if (header.get(0) == FULL) {
+            return data;
+        }
+        byte[] baseId = new byte[ID_LENGTH];
+        header.get(1, baseId);
+        int basePosition = find(ObjectId.fromRaw(baseId, 0));
+        if (basePosition < 0) {
+            throw new IllegalArgumentException("missing delta base in " + packFile.getName());
+        }
+        return Delta.apply(read(pack, offset(basePosition)), data);
+    }
+
+    /* Returns the position of ID in the index, or -1. */
+    private int find(ObjectId id) {
+        int first = id.firstByte();
+        int low = first == 0 ? 0 : index.getInt(8 + 4 * (first - 1));
+        int high = index.getInt(8 + 4 * first) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(HEADER + mid * ID_LENGTH, id);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compare(int indexOffset, ObjectId id) {
+        for (int i = 0; i < ID_LENGTH; i += 1) {
+            int cmp = Integer.compare(index.get(indexOffset + i) & 0xff, id.byteAt(i));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /* Writes a new pack and its index into a directory.  Deltas must name a
+       base that was added earlier to the same writer. */
+    static class Writer {
+        private File directory;
+        private File tempPack;
+        private RandomAccessFile pack;
+        private List<ObjectId> ids;
+        private List<Long> offsets;
+        private int deltas;
+
+        Writer(File directory) {
+            this.directory = directory;
+            directory.mkdirs();
+            ids = new ArrayList<>();
+            offsets = new ArrayList<>();
+            try {
+                tempPack = File.createTempFile("tmp-", ".pack", directory);
+                pack = new RandomAccessFile(tempPack, "rw");
+                pack.writeInt(0x4750434b);
+                pack.writeInt(VERSION);
+                pack.writeInt(0);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /* Adds the blob ID whole, reading it from IN, which is closed. */
+        public void addFull(ObjectId id, InputStream in) {
+            write(id, FULL, null, in);
+        }
+
+        public void addDelta(ObjectId id, ObjectId baseId, byte[] delta) {
+            write(id, DELTA, baseId, new ByteArrayInputStream(delta));
+            deltas += 1;
+        }
+
+        public int size() {
+            return ids.size();
+        }
+
+        public int deltas() {
+            return deltas;
+        }
+
+        private void write(ObjectId id, byte type, ObjectId baseId, InputStream in) {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+            try (InputStream input = in) {
+                ids.add(id);
+                offsets.add(pack.getFilePointer());
+                pack.writeByte(type);
+                if (baseId != null) {
+                    byte[] base = new byte[ID_LENGTH];
+                    baseId.copyRawTo(base, 0);
+                    pack.write(base);
+                }
+                long lengths = pack.getFilePointer();
+                pack.writeLong(0);
+                pack.writeLong(0);
+                long start = pack.getFilePointer();
+                long length = 0;
+                DeflaterOutputStream out = new DeflaterOutputStream(
+                        Channels.newOutputStream(pack.getChannel()), deflater, Utils.BUFFER_SIZE);
+                byte[] buffer = new byte[Utils.BUFFER_SIZE];
+                int n;
+                while ((n = input.read(buffer)) > 0) {
+                    out.write(buffer, 0, n);
+                    length += n;
+                }
+                out.finish();
+                out.flush();
+                long end = pack.getFilePointer();
+                pack.seek(lengths);
+                pack.writeLong(length);
+                pack.writeLong(end - start);
+                pack.seek(end);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            } finally {
+                deflater.end();
+            }
+        }
+
+        /* Finishes the pack, writes its index and returns it. */
+        public PackFile finish() {
+            Integer[] order = new Integer[ids.size()];
+            for (int i = 0; i < order.length; i += 1) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> ids.get(a).compareTo(ids.get(b)));
+            int[] fanout = new int[FANOUT];
+            byte[] sortedIds = new byte[order.length * ID_LENGTH];
+            for (int i = 0; i < order.length; i += 1) {
+                fanout[ids.get(order[i]).firstByte()] += 1;
+                ids.get(order[i]).copyRawTo(sortedIds, i * ID_LENGTH);
+            }
+            String name = "pack-" + Utils.sha1(sortedIds);
+            ByteBuffer indexData = ByteBuffer.allocate(HEADER + order.length * (ID_LENGTH + 8));
+            indexData.putInt(0x47494458).putInt(VERSION);
+            int total = 0;
+            for (int bucket : fanout) {
+                total += bucket;
+                indexData.putInt(total);
+            }
+            indexData.put(sortedIds);
+            for (Integer i : order) {
+                indexData.putLong(offsets.get(i));
+            }
+            try {
+                pack.seek(8);
+                pack.writeInt(ids.size());
+                pack.close();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            File packFile = new File(directory, name + ".pack");
+            File indexFile = new File(directory, name + ".idx");
+            if (!tempPack.renameTo(packFile)) {
+                throw new IllegalArgumentException("cannot write " + packFile.getName());
+            }
+            Utils.writeContents(indexFile, indexData.array());
+            return new PackFile(indexFile);
+        }
+    }
+
+    private static byte[] inflate(byte[] compressed, int length) {
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+        byte[] result = new byte[length];
+        try {
+            int n = 0;
+            while (n < length) {
+                int read = inflater.inflate(result, n, length - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("corrupt pack entry");
+                }
+                n += read;
+            }
+        } catch (DataFormatException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,209 @@
+package gitlet;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/* Pairs deleted paths with added paths that hold the same or similar
+   contents, so that a moved file can be told apart from a deletion and an
+   unrelated addition.  Paths with equal blob ids are paired first, without
+   reading anything, preferring pairs that keep the file name.  The rest
+   are compared by the Jaccard similarity of their sets of lines, estimated
+   from MinHash signatures; signatures are cut into bands, and only files
+   that agree on all of a band are ever compared, so thousands of moved
+   files cost about as much as reading them.  Pairs at least THRESHOLD
+   similar are taken best first, those keeping the file name before the
+   rest, each path at most once.  Empty and binary files are only ever
+   paired by id. */
+class RenameDetector {
+    static final double THRESHOLD = 0.5;
+    private static final int BANDS = 32;
+    private static final int ROWS = 2;
+    private static final int SIGNATURE = BANDS * ROWS;
+    private static final long[] SEEDS = new long[SIGNATURE];
+
+    static {
+        long seed = 0x9e3779b97f4a7c15L;
+        for (int i = 0; i < SIGNATURE; i += 1) {
+            seed = mix(seed + 0x9e3779b97f4a7c15L);
+            SEEDS[i] = seed;
+        }
+    }
+
+    /* Where the contents of the paths on one side are read from. */
+    interface Source {
+        InputStream open(String path, ObjectId id) throws IOException;
+    }
+
+    /* Returns a map from each deleted path that was renamed to the added
+       path it became.  DELETED and ADDED map paths to blob ids, and their
+       contents are read from DELETEDSOURCE and ADDEDSOURCE. */
+    static Map<String, String> renames(Map<String, ObjectId> deleted, Source deletedSource,
+                                       Map<String, ObjectId> added, Source addedSource) {
+        Map<String, String> renames = new TreeMap<>();
+        if (deleted.isEmpty() || added.isEmpty()) {
+            return renames;
+        }
+        Map<ObjectId, Deque<String>> addedById = new HashMap<>();
+        for (String path : new TreeMap<>(added).keySet()) {
+            addedById.computeIfAbsent(added.get(path), id -> new ArrayDeque<>()).add(path);
+        }
+        List<String> oldPaths = new ArrayList<>();
+        for (String path : new TreeMap<>(deleted).keySet()) {
+            Deque<String> candidates = addedById.get(deleted.get(path));
+            if (candidates == null || candidates.isEmpty()) {
+                oldPaths.add(path);
+                continue;
+            }
+            String match = candidates.getFirst();
+            for (String candidate : candidates) {
+                if (name(candidate).equals(name(path))) {
+                    match = candidate;
+                    break;
+                }
+            }
+            candidates.remove(match);
+            renames.put(path, match);
+        }
+        List<String> newPaths = new ArrayList<>();
+        for (Deque<String> paths : addedById.values()) {
+            newPaths.addAll(paths);
+        }
+        if (!oldPaths.isEmpty() && !newPaths.isEmpty()) {
+            similar(oldPaths, deleted, deletedSource, newPaths, added, addedSource, renames);
+        }
+        return renames;
+    }
+
+    /* Adds to RENAMES the best pairs of similar files among OLDPATHS and
+       NEWPATHS. */
+    private static void similar(List<String> oldPaths, Map<String, ObjectId> deleted, Source deletedSource,
+                                List<String> newPaths, Map<String, ObjectId> added, Source addedSource,
+                                Map<String, String> renames) {
+        List<long[]> oldSignatures = Utils.parallelMap(oldPaths,
+                path -> signature(deletedSource, path, deleted.get(path)));
+        List<long[]> newSignatures = Utils.parallelMap(newPaths,
+                path -> signature(addedSource, path, added.get(path)));
+        List<Map<Long, List<Integer>>> buckets = new ArrayList<>();
+        for (int band = 0; band < BANDS; band += 1) {
+            Map<Long, List<Integer>> bucket = new HashMap<>();
+            for (int i = 0; i < oldSignatures.size(); i += 1) {
+                if (oldSignatures.get(i) != null) {
+                    bucket.computeIfAbsent(bandKey(oldSignatures.get(i), band), k -> new ArrayList<>()).add(i);
+                }
+            }
+            buckets.add(bucket);
+        }
+        List<double[]> pairs = new ArrayList<>();
+        for (int j = 0; j < newSignatures.size(); j += 1) {
+            long[] signature = newSignatures.get(j);
+            if (signature == null) {
+                continue;
+            }
+            Set<Integer> seen = new HashSet<>();
+            for (int band = 0; band < BANDS; band += 1) {
+                for (int i : buckets.get(band).getOrDefault(bandKey(signature, band), List.of())) {
+                    if (seen.add(i)) {
+                        double score = similarity(oldSignatures.get(i), signature);
+                        if (score >= THRESHOLD) {
+                            boolean sameName = name(oldPaths.get(i)).equals(name(newPaths.get(j)));
+                            pairs.add(new double[]{sameName ? score + 1 : score, i, j});
+                        }
+                    }
+                }
+            }
+        }
+        pairs.sort((p, q) -> p[0] != q[0] ? Double.compare(q[0], p[0])
+                : p[1] != q[1] ? Double.compare(p[1], q[1]) : Double.compare(p[2], q[2]));
+        boolean[] oldTaken = new boolean[oldPaths.size()];
+        boolean[] newTaken = new boolean[newPaths.size()];
+        for (double[] pair : pairs) {
+            int i = (int) pair[1];
+            int j = (int) pair[2];
+            if (!oldTaken[i] && !newTaken[j]) {
+                oldTaken[i] = true;
+                newTaken[j] = true;
+                renames.put(oldPaths.get(i), newPaths.get(j));
+            }
+        }
+    }
+
+    /* Returns the MinHash signature of the set of lines of the file PATH with
+       blob ID in SOURCE, or null if it is empty or binary. */
+    private static long[] signature(Source source, String path, ObjectId id) {
+        long[] signature = new long[SIGNATURE];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        boolean empty = true;
+        try (InputStream in = source.open(path, id)) {
+            byte[] buffer = new byte[Utils.BUFFER_SIZE];
+            long line = 0xcbf29ce484222325L;
+            boolean pending = false;
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                for (int k = 0; k < n; k += 1) {
+                    if (buffer[k] == 0) {
+                        return null;
+                    }
+                    line = (line ^ (buffer[k] & 0xff)) * 0x100000001b3L;
+                    pending = true;
+                    if (buffer[k] == '\n') {
+                        add(signature, line);
+                        line = 0xcbf29ce484222325L;
+                        pending = false;
+                        empty = false;
+                    }
+                }
+            }
+            if (pending) {
+                add(signature, line);
+                empty = false;
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+        return empty ? null : signature;
+    }
+
+    private static void add(long[] signature, long line) {
+        for (int i = 0; i < SIGNATURE; i += 1) {
+            signature[i] = Math.min(signature[i], mix(line ^ SEEDS[i]));
+        }
+    }
+
+    private static long bandKey(long[] signature, int band) {
+        long key = band;
+        for (int row = 0; row < ROWS; row += 1) {
+            key = mix(key ^ signature[band * ROWS + row]);
+        }
+        return key;
+    }
+
+    /* Returns the estimated Jaccard similarity of the line sets whose
+       signatures are A and B. */
+    private static double similarity(long[] a, long[] b) {
+        int equal = 0;
+        for (int i = 0; i < SIGNATURE; i += 1) {
+            if (a[i] == b[i]) {
+                equal += 1;
+            }
+        }
+        return (double) equal / SIGNATURE;
+    }
+
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+
+    private static String name(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+}
@@ -0,0 +1,84 @@
+package gitlet;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+
+/* The lock that a command changing a repository holds from reading the
+   repository's state until it has published its new state, so that
+   concurrent writers take turns instead of the last one silently undoing
+   the others.  The lock is an operating-system lock on .gitlet/lock, so it
+   is released even if its holder dies.  Readers never wait for it: every
+   state file is replaced by an atomic rename and the references are kept
+   in one file, so a reader always sees some complete state, and a blob
+   that a repack moves is looked for again in the new pack.  A reader that
+   would save what it added to the caches takes the lock just for that,
+   only if it is free, and otherwise leaves the caches alone. */
+class RepositoryLock implements AutoCloseable {
+    static final String LOCK_FILE = "lock";
+
+    private FileChannel channel;
+    private FileLock lock;
+
+    private RepositoryLock(FileChannel channel, FileLock lock) {
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    /* Returns the lock on the repository in GITLETDIR, waiting until no
+       other process holds it. */
+    static RepositoryLock acquire(File gitletDir) {
+        FileChannel channel = null;
+        try {
+            channel = open(gitletDir);
+            return new RepositoryLock(channel, channel.lock());
+        } catch (IOException excp) {
+            closeQuietly(channel);
+            throw new IllegalArgumentException("cannot lock " + gitletDir + ": " + excp.getMessage());
+        }
+    }
+
+    /* Returns the lock on the repository in GITLETDIR, or null if someone
+       else holds it or it cannot be taken. */
+    static RepositoryLock tryAcquire(File gitletDir) {
+        FileChannel channel = null;
+        try {
+            channel = open(gitletDir);
+            FileLock lock = channel.tryLock();
+            if (lock != null) {
+                return new RepositoryLock(channel, lock);
+            }
+        } catch (IOException | OverlappingFileLockException excp) {
+            /* Treat the lock as taken. */
+        }
+        closeQuietly(channel);
+        return null;
+    }
+
+    private static FileChannel open(File gitletDir) throws IOException {
+        return FileChannel.open(new File(gitletDir, LOCK_FILE).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                /* Nothing more to release. */
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            lock.release();
+            channel.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
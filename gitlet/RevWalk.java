@@ -0,0 +1,117 @@
+package gitlet;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.function.IntPredicate;
+
+/* A lazy walk over the commits of a CommitGraph.  The walk starts from some
+   commits and yields them and their ancestors one at a time, each commit
+   once, reading nothing but the graph: a commit's parents are only queued
+   when the commit itself is yielded, so taking the first few commits of a
+   long history costs about as much as the few commits taken.
+
+   Commits come out newest first in DATE order, or in TOPO order, where a
+   commit always comes before its parents (by generation number, then by
+   date).  A walk may follow first parents only, skip commits outside a
+   range of commit times or rejected by a filter, and stop after a number
+   of commits. */
+public class RevWalk implements Iterator<Integer> {
+    enum Order { DATE, TOPO }
+
+    private CommitGraph graph;
+    private Order order;
+    private PriorityQueue<Integer> queue;
+    private BitSet seen;
+    private boolean firstParentOnly;
+    private long since = Long.MIN_VALUE;
+    private long until = Long.MAX_VALUE;
+    private IntPredicate filter = position -> true;
+    private int limit = Integer.MAX_VALUE;
+    private int returned;
+    private int next = -1;
+
+    RevWalk(CommitGraph graph, Order order) {
+        this.graph = graph;
+        this.order = order;
+        seen = new BitSet();
+        if (order == Order.TOPO) {
+            queue = new PriorityQueue<>((a, b) -> graph.generation(a) != graph.generation(b)
+                    ? Integer.compare(graph.generation(b), graph.generation(a))
+                    : Long.compare(graph.time(b), graph.time(a)));
+        } else {
+            queue = new PriorityQueue<>((a, b) -> graph.time(a) != graph.time(b)
+                    ? Long.compare(graph.time(b), graph.time(a))
+                    : Integer.compare(graph.generation(b), graph.generation(a)));
+        }
+    }
+
+    /* Adds the commit at POSITION to the commits the walk starts from. */
+    public RevWalk start(int position) {
+        if (position >= 0 && !seen.get(position)) {
+            seen.set(position);
+            queue.add(position);
+        }
+        return this;
+    }
+
+    public RevWalk firstParentOnly(boolean firstParentOnly) {
+        this.firstParentOnly = firstParentOnly;
+        return this;
+    }
+
+    /* Yields only commits made at or after SINCE and at or before UNTIL, in
+       seconds as kept by the CommitGraph. */
+    public RevWalk between(long since, long until) {
+        this.since = since;
+        this.until = until;
+        return this;
+    }
+
+    /* Yields only the commits whose positions satisfy FILTER.  Commits that
+       are not yielded do not count towards the limit. */
+    public RevWalk filter(IntPredicate filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    public RevWalk limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next < 0 && returned < limit && !queue.isEmpty()) {
+            int position = queue.poll();
+            if (order == Order.DATE && graph.time(position) < since) {
+                queue.clear();
+                break;
+            }
+            if (firstParentOnly) {
+                start(graph.firstParent(position));
+            } else {
+                for (int parent : graph.parents(position)) {
+                    start(parent);
+                }
+            }
+            long time = graph.time(position);
+            if (time >= since && time <= until && filter.test(position)) {
+                next = position;
+            }
+        }
+        return next >= 0;
+    }
+
+    /* Returns the position of the next commit. */
+    @Override
+    public Integer next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int position = next;
+        next = -1;
+        returned += 1;
+        return position;
+    }
+}
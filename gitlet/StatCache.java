@@ -0,0 +1,139 @@
+package gitlet;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/* Remembers the blob id of each working file together with its size, mtime,
+   ctime and inode, so that a file whose stat data has not changed since it
+   was last hashed need not be read again.  An entry whose mtime is not older
+   than the index file itself is "racily clean": the file may have changed
+   within the same timestamp tick, so it is rehashed anyway.  Files may be
+   hashed and stored from several threads at once. */
+public class StatCache implements Serializable {
+    private ConcurrentHashMap<String, Entry> entries;
+    private transient File workingDir;
+    private transient long indexTime;
+    private transient volatile boolean dirty;
+    private static Boolean unixAttributes;
+
+    private static class Entry implements Serializable {
+        private long size;
+        private long mtime;
+        private long ctime;
+        private long inode;
+        private ObjectId id;
+
+        boolean matches(Entry other) {
+            return size == other.size && mtime == other.mtime
+                    && ctime == other.ctime && inode == other.inode;
+        }
+    }
+
+    StatCache() {
+        entries = new ConcurrentHashMap<>();
+    }
+
+    static StatCache load(File indexFile, File workingDir) {
+        StatCache cache = indexFile.isFile() ? Utils.readObject(indexFile, StatCache.class) : new StatCache();
+        cache.workingDir = workingDir;
+        cache.indexTime = indexFile.lastModified();
+        return cache;
+    }
+
+    void save(File indexFile) {
+        if (dirty) {
+            Utils.writeObject(indexFile, this);
+            indexTime = indexFile.lastModified();
+            dirty = false;
+        }
+    }
+
+    /* Returns the blob id of the working file FILENAME, which must exist. */
+    public ObjectId hash(String fileName) {
+        Entry stat = stat(fileName);
+        Entry cached = entries.get(fileName);
+        if (clean(cached, stat)) {
+            return cached.id;
+        }
+        stat.id = Utils.objectId(new File(workingDir, fileName));
+        remember(fileName, cached, stat);
+        return stat.id;
+    }
+
+    /* Returns the blob id of the working file FILENAME after making sure that
+       BLOBSTORE holds its contents.  If its stat data is unchanged and the
+       store holds its blob, the file is not read at all; otherwise it is
+       read once, by the store, which hashes it as it goes. */
+    public ObjectId store(String fileName, BlobStore blobStore) {
+        Entry stat = stat(fileName);
+        Entry cached = entries.get(fileName);
+        if (clean(cached, stat) && blobStore.contains(cached.id)) {
+            return cached.id;
+        }
+        stat.id = blobStore.put(new File(workingDir, fileName));
+        remember(fileName, cached, stat);
+        return stat.id;
+    }
+
+    /* Records that the working file FILENAME was just written from blob ID. */
+    public void record(String fileName, ObjectId id) {
+        Entry stat = stat(fileName);
+        stat.id = id;
+        remember(fileName, entries.get(fileName), stat);
+    }
+
+    public void forget(String fileName) {
+        if (entries.remove(fileName) != null) {
+            dirty = true;
+        }
+    }
+
+    /* Returns true if CACHED holds the blob id of a file whose stat data is
+       now STAT. */
+    private boolean clean(Entry cached, Entry stat) {
+        return cached != null && cached.matches(stat) && cached.mtime < indexTime;
+    }
+
+    private void remember(String fileName, Entry cached, Entry stat) {
+        if (cached == null || !cached.matches(stat) || !cached.id.equals(stat.id)) {
+            entries.put(fileName, stat);
+            dirty = true;
+        } else if (cached.mtime >= indexTime) {
+            dirty = true;
+        }
+    }
+
+    private Entry stat(String fileName) {
+        Path path = new File(workingDir, fileName).toPath();
+        Entry entry = new Entry();
+        try {
+            if (unixAttributes == null || unixAttributes) {
+                try {
+                    Map<String, Object> attrs = Files.readAttributes(path, "unix:size,lastModifiedTime,ctime,ino");
+                    entry.size = (Long) attrs.get("size");
+                    entry.mtime = ((FileTime) attrs.get("lastModifiedTime")).toMillis();
+                    entry.ctime = ((FileTime) attrs.get("ctime")).toMillis();
+                    entry.inode = (Long) attrs.get("ino");
+                    unixAttributes = true;
+                    return entry;
+                } catch (UnsupportedOperationException | IllegalArgumentException excp) {
+                    unixAttributes = false;
+                }
+            }
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            entry.size = attrs.size();
+            entry.mtime = attrs.lastModifiedTime().toMillis();
+            entry.ctime = attrs.creationTime().toMillis();
+            entry.inode = attrs.fileKey() == null ? 0 : attrs.fileKey().hashCode();
+            return entry;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package gitlet;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.TreeMap;
+
+/* A snapshot of one directory.  Files map to blob ids and subdirectories map
+   to the ids of other Trees, so a directory that did not change between two
+   commits is stored once and shared by both. */
+public class Tree implements Serializable {
+    private TreeMap<String, ObjectId> files;
+    private TreeMap<String, ObjectId> dirs;
+    private ObjectId id;
+
+    Tree(TreeMap<String, ObjectId> files, TreeMap<String, ObjectId> dirs) {
+        this.files = files;
+        this.dirs = dirs;
+        StringBuilder entries = new StringBuilder();
+        for (Map.Entry<String, ObjectId> entry : files.entrySet()) {
+            entries.append("blob ").append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        for (Map.Entry<String, ObjectId> entry : dirs.entrySet()) {
+            entries.append("tree ").append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        id = Utils.objectId("tree\n", entries.toString());
+    }
+
+    public ObjectId ID() {
+        return id;
+    }
+
+    public TreeMap<String, ObjectId> files() {
+        return files;
+    }
+
+    public TreeMap<String, ObjectId> dirs() {
+        return dirs;
+    }
+
+    public boolean isEmpty() {
+        return files.isEmpty() && dirs.isEmpty();
+    }
+}
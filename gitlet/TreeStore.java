@@ -0,0 +1,217 @@
+package gitlet;
+import java.io.File;
+import java.util.*;
+
+/* Reads and writes Tree objects under a .gitlet/trees directory.  Every
+   operation walks only the directories whose ids differ, so work is
+   proportional to what changed rather than to the size of the snapshot. */
+public class TreeStore {
+    private File directory;
+    private Map<ObjectId, Tree> idToTrees;
+    private Map<ObjectId, Map<String, ObjectId>> flattened;
+    private ObjectId emptyTreeId;
+
+    TreeStore(File directory) {
+        this.directory = directory;
+        directory.mkdirs();
+        idToTrees = new HashMap<>();
+        flattened = new HashMap<>();
+        emptyTreeId = put(new Tree(new TreeMap<>(), new TreeMap<>()));
+    }
+
+    public ObjectId emptyTree() {
+        return emptyTreeId;
+    }
+
+    public boolean contains(ObjectId id) {
+        return idToTrees.containsKey(id) || new File(directory, id.name()).isFile();
+    }
+
+    public Tree get(ObjectId id) {
+        if (id == null) {
+            id = emptyTreeId;
+        }
+        Tree tree = idToTrees.get(id);
+        if (tree == null) {
+            tree = Utils.readObject(new File(directory, id.name()), Tree.class);
+            idToTrees.put(id, tree);
+        }
+        return tree;
+    }
+
+    /* Returns the tree ID as get does, but without caching it, so that a walk
+       over every tree does not hold them all and several threads may read
+       at once. */
+    Tree read(ObjectId id) {
+        Tree tree = idToTrees.get(id);
+        return tree != null ? tree : Utils.readObject(new File(directory, id.name()), Tree.class);
+    }
+
+    /* Returns the ids of all stored trees. */
+    public List<ObjectId> ids() {
+        List<ObjectId> ids = new ArrayList<>();
+        List<String> names = Utils.plainFilenamesIn(directory);
+        for (String name : names == null ? List.<String>of() : names) {
+            if (ObjectId.isId(name)) {
+                ids.add(ObjectId.fromString(name));
+            }
+        }
+        return ids;
+    }
+
+    /* Returns when the tree ID was written, in milliseconds. */
+    public long modified(ObjectId id) {
+        return new File(directory, id.name()).lastModified();
+    }
+
+    /* Deletes the tree ID, which nothing may refer to. */
+    public void delete(ObjectId id) {
+        idToTrees.remove(id);
+        flattened.remove(id);
+        new File(directory, id.name()).delete();
+    }
+
+    public ObjectId put(Tree tree) {
+        File treeFile = new File(directory, tree.ID().name());
+        if (!idToTrees.containsKey(tree.ID()) && !treeFile.isFile()) {
+            Utils.writeObject(treeFile, tree);
+        }
+        idToTrees.put(tree.ID(), tree);
+        return tree.ID();
+    }
+
+    /* Returns the blob id of PATH in the tree TREEID, or null. */
+    public ObjectId lookup(ObjectId treeId, String path) {
+        Tree tree = get(treeId);
+        int slash = path.indexOf('/');
+        while (slash >= 0) {
+            ObjectId subtree = tree.dirs().get(path.substring(0, slash));
+            if (subtree == null) {
+                return null;
+            }
+            tree = get(subtree);
+            path = path.substring(slash + 1);
+            slash = path.indexOf('/');
+        }
+        return tree.files().get(path);
+    }
+
+    /* Returns the id of the file or directory at PATH in the tree TREEID, or
+       null if there is none. */
+    public ObjectId entry(ObjectId treeId, String path) {
+        int slash = path.lastIndexOf('/');
+        Tree tree = get(treeId);
+        if (slash >= 0) {
+            ObjectId dir = entry(treeId, path.substring(0, slash));
+            if (dir == null || !contains(dir)) {
+                return null;
+            }
+            tree = get(dir);
+            path = path.substring(slash + 1);
+        }
+        ObjectId file = tree.files().get(path);
+        return file != null ? file : tree.dirs().get(path);
+    }
+
+    /* Returns every file below TREEID as a map from path to blob id. */
+    public Map<String, ObjectId> flatten(ObjectId treeId) {
+        Map<String, ObjectId> blobs = flattened.get(treeId);
+        if (blobs == null) {
+            HashMap<String, ObjectId> result = new HashMap<>();
+            flatten(get(treeId), "", result);
+            blobs = Collections.unmodifiableMap(result);
+            flattened.put(treeId, blobs);
+        }
+        return blobs;
+    }
+
+    private void flatten(Tree tree, String prefix, Map<String, ObjectId> result) {
+        for (Map.Entry<String, ObjectId> file : tree.files().entrySet()) {
+            result.put(prefix + file.getKey(), file.getValue());
+        }
+        for (Map.Entry<String, ObjectId> dir : tree.dirs().entrySet()) {
+            flatten(get(dir.getValue()), prefix + dir.getKey() + "/", result);
+        }
+    }
+
+    /* Returns the id of the tree obtained by applying CHANGES to TREEID.  Each
+       change maps a path to its new blob id, or to null if the path is
+       removed.  Only the directories on the changed paths are rewritten. */
+    public ObjectId update(ObjectId treeId, Map<String, ObjectId> changes) {
+        if (changes.isEmpty()) {
+            return treeId;
+        }
+        Tree tree = get(treeId);
+        TreeMap<String, ObjectId> files = new TreeMap<>(tree.files());
+        TreeMap<String, ObjectId> dirs = new TreeMap<>(tree.dirs());
+        Map<String, Map<String, ObjectId>> nested = new TreeMap<>();
+        for (Map.Entry<String, ObjectId> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                if (change.getValue() == null) {
+                    files.remove(path);
+                } else {
+                    files.put(path, change.getValue());
+                    dirs.remove(path);
+                }
+            } else {
+                nested.computeIfAbsent(path.substring(0, slash), k -> new HashMap<>())
+                        .put(path.substring(slash + 1), change.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, ObjectId>> dir : nested.entrySet()) {
+            ObjectId subtree = update(dirs.getOrDefault(dir.getKey(), emptyTreeId), dir.getValue());
+            if (get(subtree).isEmpty()) {
+                dirs.remove(dir.getKey());
+            } else {
+                dirs.put(dir.getKey(), subtree);
+                files.remove(dir.getKey());
+            }
+        }
+        return put(new Tree(files, dirs));
+    }
+
+    /* Returns the paths whose blob differs between trees A and B, mapped to
+       {blob id in A, blob id in B}, where null marks a missing file.
+       Subtrees with equal ids are skipped without being read. */
+    public TreeMap<String, ObjectId[]> diff(ObjectId a, ObjectId b) {
+        TreeMap<String, ObjectId[]> changes = new TreeMap<>();
+        diff(a, b, "", changes);
+        return changes;
+    }
+
+    private void diff(ObjectId a, ObjectId b, String prefix, Map<String, ObjectId[]> changes) {
+        if (Objects.equals(a, b)) {
+            return;
+        }
+        Tree treeA = get(a);
+        Tree treeB = get(b);
+        Set<String> names = new TreeSet<>(treeA.files().keySet());
+        names.addAll(treeB.files().keySet());
+        for (String name : names) {
+            ObjectId blobA = treeA.files().get(name);
+            ObjectId blobB = treeB.files().get(name);
+            if (!Objects.equals(blobA, blobB)) {
+                changes.put(prefix + name, new ObjectId[]{blobA, blobB});
+            }
+        }
+        names = new TreeSet<>(treeA.dirs().keySet());
+        names.addAll(treeB.dirs().keySet());
+        for (String name : names) {
+            diff(treeA.dirs().get(name), treeB.dirs().get(name), prefix + name + "/", changes);
+        }
+    }
+
+    /* Copies the tree TREEID and every subtree that OTHER lacks into OTHER. */
+    public void copyTo(TreeStore other, ObjectId treeId) {
+        if (other.contains(treeId)) {
+            return;
+        }
+        Tree tree = get(treeId);
+        for (ObjectId subtree : tree.dirs().values()) {
+            copyTo(other, subtree);
+        }
+        other.put(tree);
+    }
+}
@@ -0,0 +1,118 @@
+package gitlet;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/* The differences between two versions of a file in unified format: a
+   header naming the file, then hunks of changed lines, each with up to
+   CONTEXT unchanged lines around it and hunks closer than that merged.
+   Either version may be missing, for a file added or deleted, and files
+   holding a NUL byte are reported as differing binary files. */
+class UnifiedDiff {
+    static final int CONTEXT = 3;
+    private static final String NO_NEWLINE = "\\ No newline at end of file\n";
+
+    private LineTable lines = new LineTable();
+    private StringBuilder out = new StringBuilder();
+    private int[] a;
+    private int[] b;
+    private int[] matches;
+
+    /* Returns the diff of the file PATH from BEFORE to AFTER, either of which may
+       be null if the file does not exist on that side. */
+    static byte[] format(String path, InputStream before, InputStream after) throws IOException {
+        UnifiedDiff diff = new UnifiedDiff();
+        diff.a = before == null ? new int[0] : diff.lines.read(before);
+        diff.b = after == null ? new int[0] : diff.lines.read(after);
+        diff.out.append("diff a/").append(path).append(" b/").append(path).append('\n');
+        if (diff.lines.binary()) {
+            diff.out.append("Binary files ").append(before == null ? "/dev/null" : "a/" + path)
+                    .append(" and ").append(after == null ? "/dev/null" : "b/" + path).append(" differ\n");
+        } else {
+            diff.out.append("--- ").append(before == null ? "/dev/null" : "a/" + path).append('\n');
+            diff.out.append("+++ ").append(after == null ? "/dev/null" : "b/" + path).append('\n');
+            diff.matches = Diff.match(diff.a, diff.b);
+            diff.hunks();
+        }
+        return diff.out.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /* Appends the hunks of the edit script in which each line I of A is
+       kept as line MATCHES[I] of B, or deleted if that is -1. */
+    private void hunks() {
+        int i = 0;
+        int j = 0;
+        int hunkA = -1;
+        int hunkB = -1;
+        int endA = 0;
+        int endB = 0;
+        while (true) {
+            while (i < a.length && j < b.length && matches[i] == j) {
+                i += 1;
+                j += 1;
+            }
+            if (i == a.length && j == b.length) {
+                break;
+            }
+            int nextI = i;
+            while (nextI < a.length && matches[nextI] < 0) {
+                nextI += 1;
+            }
+            int nextJ = nextI < a.length ? matches[nextI] : b.length;
+            if (hunkA >= 0 && i - endA > 2 * CONTEXT) {
+                hunk(hunkA, hunkB, endA, endB);
+                hunkA = -1;
+            }
+            if (hunkA < 0) {
+                hunkA = Math.max(0, i - CONTEXT);
+                hunkB = j - (i - hunkA);
+            }
+            i = nextI;
+            j = nextJ;
+            endA = i;
+            endB = j;
+        }
+        if (hunkA >= 0) {
+            hunk(hunkA, hunkB, endA, endB);
+        }
+    }
+
+    /* Appends the hunk covering A[ALO..AHI) and B[BLO..BHI) plus trailing
+       context. */
+    private void hunk(int aLo, int bLo, int aHi, int bHi) {
+        int context = Math.min(CONTEXT, a.length - aHi);
+        aHi += context;
+        bHi += context;
+        out.append("@@ -").append(range(aLo, aHi)).append(" +").append(range(bLo, bHi)).append(" @@\n");
+        int i = aLo;
+        int j = bLo;
+        while (i < aHi || j < bHi) {
+            if (i < aHi && matches[i] < 0) {
+                line('-', a[i]);
+                i += 1;
+            } else if (j < bHi && (i == aHi || j < matches[i])) {
+                line('+', b[j]);
+                j += 1;
+            } else {
+                line(' ', a[i]);
+                i += 1;
+                j += 1;
+            }
+        }
+    }
+
+    private static String range(int lo, int hi) {
+        if (hi - lo == 1) {
+            return String.valueOf(lo + 1);
+        }
+        return (hi == lo ? lo : lo + 1) + "," + (hi - lo);
+    }
+
+    private void line(char prefix, int id) {
+        String line = lines.line(id);
+        out.append(prefix).append(line);
+        if (line.charAt(line.length() - 1) != '\n') {
+            out.append('\n').append(NO_NEWLINE);
+        }
+    }
+}
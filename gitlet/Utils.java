@@ -1,46 +1,104 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.Arrays;
-import java.util.Formatter;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 
 /* Assorted utilities.
    @author P. N. Hilfinger */
 class Utils {
 
+    /* Size of the buffers used to stream file contents. */
+    static final int BUFFER_SIZE = 1 << 16;
+
     /* SHA-1 HASH VALUES. */
 
+    /* Each thread reuses one SHA-1 digest; MessageDigest.getInstance is far
+       too slow to call once per hash. */
+    private static final ThreadLocal<MessageDigest> SHA1 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    });
+
     /* Returns the SHA-1 hash of the concatenation of VALS, which may be any
        mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
+        return objectId(vals).name();
+    }
+
+    /* Returns the SHA-1 hash of the concatenation of VALS, which may be any
+       mixture of byte arrays and Strings, as an ObjectId. */
+    static ObjectId objectId(Object... vals) {
+        MessageDigest md = sha1Digest();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            } else {
+                throw new IllegalArgumentException("improper type to sha1");
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
+        }
+        return ObjectId.fromRaw(md.digest(), 0);
+    }
+
+    /* Returns the SHA-1 hash of the contents of FILE, reading it through a
+       fixed-size buffer. */
+    static ObjectId objectId(File file) {
+        MessageDigest md = sha1Digest();
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                md.update(buffer, 0, n);
             }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
+        } catch (IOException excp) {
+            md.reset();
+            throw new IllegalArgumentException(excp.getMessage());
         }
+        return ObjectId.fromRaw(md.digest(), 0);
+    }
+
+    /* Returns this thread's SHA-1 digest, reset.  The caller must finish with
+       it, by calling digest(), before hashing anything else. */
+    static MessageDigest sha1Digest() {
+        MessageDigest md = SHA1.get();
+        md.reset();
+        return md;
+    }
+
+    /* Returns DIGEST as a string of lower-case hexadecimal digits. */
+    static String hex(byte[] digest) {
+        return ObjectId.hex(digest);
     }
 
     /* Returns the SHA-1 hash of the concatenation of the strings in VALS. */
@@ -88,16 +146,98 @@ class Utils {
         }
     }
 
+    /* Return the entire contents of FILE as a String.  FILE must be a normal
+       file.  Throws IllegalArgumentException in case of problems. */
+    static String readContentsAsString(File file) {
+        return new String(readContents(file), StandardCharsets.UTF_8);
+    }
+
+    /* Something that writes the contents of a file to a stream. */
+    interface Contents {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
     /* Write the entire contents of BYTES to FILE, creating or overwriting it as
-       needed. Throws IllegalArgumentException in case of problems. */
+       needed.  Throws IllegalArgumentException in case of problems. */
     static void writeContents(File file, byte[] bytes) {
+        writeContents(file, out -> out.write(bytes));
+    }
+
+    /* Write what CONTENTS produces to FILE, creating or overwriting it as
+       needed.  It is written to a temporary file beside FILE, which is then
+       renamed over it, so that readers see either the old contents or the
+       new, never a mixture, and FILE is left as it was if CONTENTS fails.
+       Throws IllegalArgumentException in case of problems. */
+    static void writeContents(File file, Contents contents) {
+        if (file.isDirectory()) {
+            throw
+                new IllegalArgumentException("cannot overwrite directory");
+        }
+        File temp = null;
+        boolean written = false;
         try {
-            if (file.isDirectory()) {
-                throw
-                    new IllegalArgumentException("cannot overwrite directory");
+            temp = File.createTempFile("." + file.getName() + "-", ".tmp",
+                                       file.getAbsoluteFile().getParentFile());
+            try (OutputStream out = new FileOutputStream(temp)) {
+                contents.writeTo(out);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            written = true;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (temp != null && !written) {
+                temp.delete();
             }
-            Files.write(file.toPath(), bytes);
+        }
+    }
+
+    /* Write the UTF-8 encoding of TEXT to FILE, creating or overwriting it as
+       needed. Throws IllegalArgumentException in case of problems. */
+    static void writeContents(File file, String text) {
+        writeContents(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /* SERIALIZATION */
+
+    /* Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
+       Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T readObject(File file,
+                                                 Class<T> expectedClass) {
+        return deserialize(readContents(file), expectedClass);
+    }
+
+    /* Write OBJ to FILE. */
+    static void writeObject(File file, Serializable obj) {
+        writeContents(file, serialize(obj));
+    }
+
+    /* Returns a byte array containing the serialized contents of OBJ. */
+    static byte[] serialize(Serializable obj) {
+        try {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            ObjectOutputStream objectStream = new ObjectOutputStream(stream);
+            objectStream.writeObject(obj);
+            objectStream.close();
+            return stream.toByteArray();
         } catch (IOException excp) {
+            throw new IllegalArgumentException("internal error serializing");
+        }
+    }
+
+    /* Return the object of type T serialized in BYTES, casting it to
+       EXPECTEDCLASS. Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
     }
@@ -149,4 +289,111 @@ class Utils {
         return plainFilenamesIn(new File(dir));
     }
 
+    /* PARALLELISM */
+
+    /* The pool shared by all parallel file work. */
+    private static ForkJoinPool pool;
+
+    /* Returns the number of threads used for parallel file work: the
+       gitlet.threads system property, else the GITLET_THREADS environment
+       variable, else the number of available processors. */
+    static int parallelism() {
+        String setting = System.getProperty("gitlet.threads", System.getenv("GITLET_THREADS"));
+        try {
+            if (setting != null && Integer.parseInt(setting.trim()) > 0) {
+                return Integer.parseInt(setting.trim());
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through to the default. */
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /* Returns the pool used for parallel file work. */
+    static synchronized ForkJoinPool pool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism());
+        }
+        return pool;
+    }
+
+    /* Returns the results of applying FUNCTION to each of ITEMS, computed on
+       pool() but returned in the order of ITEMS.  An unchecked exception
+       thrown by FUNCTION is rethrown here. */
+    static <T, R> List<R> parallelMap(List<T> items, Function<T, R> function) {
+        if (items.size() < 2 || parallelism() == 1) {
+            return items.stream().map(function).collect(Collectors.toList());
+        }
+        return join(pool().submit(() -> items.parallelStream().map(function)
+                                  .collect(Collectors.toList())));
+    }
+
+    /* Applies ACTION to each of ITEMS on pool(), in no particular order, and
+       returns once all are done.  An unchecked exception thrown by ACTION is
+       rethrown here. */
+    static <T> void parallelForEach(List<T> items, Consumer<T> action) {
+        if (items.size() < 2 || parallelism() == 1) {
+            items.forEach(action);
+            return;
+        }
+        join(pool().submit(() -> items.parallelStream().forEach(action)));
+    }
+
+    /* Returns the result of FUTURE once it is done, rethrowing an unchecked
+       exception that it threw. */
+    private static <R> R join(Future<R> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getCause());
+        }
+    }
+
+    /* Applies FUNCTION to each of ITEMS on pool() and passes the results to
+       ACTION on the calling thread, in the order of ITEMS, each as soon as it
+       and those before it are ready.  At most a few results per thread are
+       computed ahead of ACTION, so output can start before all the work is
+       done and memory stays bounded.  An unchecked exception thrown by
+       FUNCTION is rethrown here. */
+    static <T, R> void parallelForEachOrdered(List<T> items, Function<T, R> function,
+                                              Consumer<R> action) {
+        if (items.size() < 2 || parallelism() == 1) {
+            for (T item : items) {
+                action.accept(function.apply(item));
+            }
+            return;
+        }
+        int window = 4 * parallelism();
+        Deque<Future<R>> pending = new ArrayDeque<>();
+        int next = 0;
+        try {
+            while (next < items.size() || !pending.isEmpty()) {
+                while (next < items.size() && pending.size() < window) {
+                    T item = items.get(next);
+                    pending.add(pool().submit(() -> function.apply(item)));
+                    next += 1;
+                }
+                action.accept(pending.remove().get());
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getCause());
+        } finally {
+            for (Future<R> future : pending) {
+                future.cancel(false);
+            }
+        }
+    }
+
 }
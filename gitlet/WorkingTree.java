@@ -0,0 +1,134 @@
+package gitlet;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/* Lists the files of a working directory, skipping .gitlet and anything
+   matched by the patterns in its .gitletignore file.  Ignored directories
+   are never entered, and subdirectories are scanned in parallel.
+
+   Each non-blank line of .gitletignore that does not start with # is a glob.
+   A pattern ending in / matches only directories.  A pattern containing
+   another / is matched against the whole path from the working directory;
+   otherwise it is matched against the name alone, at any depth.  A pattern
+   starting with ! re-includes what an earlier pattern ignored. */
+public class WorkingTree {
+    static final String IGNORE_FILE = ".gitletignore";
+
+    private Path root;
+    private List<Rule> rules;
+
+    private static class Rule {
+        private PathMatcher matcher;
+        private boolean directoryOnly;
+        private boolean anchored;
+        private boolean negated;
+    }
+
+    WorkingTree(File root) {
+        this.root = root.toPath();
+        rules = new ArrayList<>();
+        File ignoreFile = new File(root, IGNORE_FILE);
+        if (ignoreFile.isFile()) {
+            for (String line : Utils.readContentsAsString(ignoreFile).split("\r?\n")) {
+                addRule(line.trim());
+            }
+        }
+    }
+
+    private void addRule(String pattern) {
+        if (pattern.isEmpty() || pattern.startsWith("#")) {
+            return;
+        }
+        Rule rule = new Rule();
+        if (pattern.startsWith("!")) {
+            rule.negated = true;
+            pattern = pattern.substring(1);
+        }
+        if (pattern.endsWith("/")) {
+            rule.directoryOnly = true;
+            pattern = pattern.substring(0, pattern.length() - 1);
+        }
+        if (pattern.startsWith("/")) {
+            pattern = pattern.substring(1);
+        }
+        rule.anchored = pattern.contains("/");
+        rule.matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        rules.add(rule);
+    }
+
+    /* Returns true if the entry at RELATIVEPATH, named NAME, is ignored. */
+    public boolean isIgnored(String relativePath, String name, boolean directory) {
+        if (name.equals(".gitlet")) {
+            return true;
+        }
+        boolean ignored = false;
+        for (Rule rule : rules) {
+            if (rule.directoryOnly && !directory) {
+                continue;
+            }
+            Path candidate = Paths.get(rule.anchored ? relativePath : name);
+            if (rule.matcher.matches(candidate)) {
+                ignored = !rule.negated;
+            }
+        }
+        return ignored;
+    }
+
+    /* Returns the paths, relative to the root and separated by /, of every
+       file that is not ignored, in sorted order. */
+    public List<String> files() {
+        return files("");
+    }
+
+    /* Returns the files that are not ignored below the directory DIR, given
+       relative to the root, in sorted order. */
+    public List<String> files(String dir) {
+        List<String> result = Utils.pool().invoke(new Scan(dir));
+        Collections.sort(result);
+        return result;
+    }
+
+    private class Scan extends RecursiveTask<List<String>> {
+        private String prefix;
+
+        Scan(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        protected List<String> compute() {
+            List<String> files = new ArrayList<>();
+            List<Scan> subdirs = new ArrayList<>();
+            Path dir = prefix.isEmpty() ? root : root.resolve(prefix);
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    String name = entry.getFileName().toString();
+                    String relativePath = prefix.isEmpty() ? name : prefix + "/" + name;
+                    BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                    if (isIgnored(relativePath, name, attrs.isDirectory())) {
+                        continue;
+                    }
+                    if (attrs.isDirectory()) {
+                        subdirs.add(new Scan(relativePath));
+                    } else if (attrs.isRegularFile()) {
+                        files.add(relativePath);
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException excp) {
+                return files;
+            }
+            for (Scan subdir : ForkJoinTask.invokeAll(subdirs)) {
+                files.addAll(subdir.join());
+            }
+            return files;
+        }
+    }
+}
@@ -1,11 +1,12 @@
 import sys, re
 from subprocess import \
-     check_output, PIPE, STDOUT, DEVNULL, CalledProcessError, TimeoutExpired
+     check_output, Popen, PIPE, STDOUT, DEVNULL, CalledProcessError, TimeoutExpired
 from os.path import abspath, basename, dirname, exists, join, splitext
 from getopt import getopt, GetoptError
-from os import chdir, environ, getcwd, mkdir, remove
+from os import chdir, environ, getcwd, makedirs, mkdir, remove
 from shutil import copyfile, rmtree
 from math import log
+from time import sleep, time
 
 SHORT_USAGE = """\
 Usage: python3 tester.py OPTIONS TEST.in ...
@@ -46,7 +47,8 @@ The instructions each have one of the following forms:
    T N    Set the timeout for gitlet commands in the rest of this test to N
           seconds.
    + NAME F
-          Copy the contents of src/F into a file named NAME.
+          Copy the contents of src/F into a file named NAME, creating
+          its directory if needed.
    - NAME
           Delete the file named NAME.
    > COMMAND OPERANDS
@@ -61,6 +63,15 @@ The instructions each have one of the following forms:
           Python regular expressions and matched accordingly. The directory
           or JAR file containing the gitlet.Main program is assumed to be
           in directory DIR specifed by --progdir (default is ..).
+   & COMMAND OPERANDS
+          Start gitlet.Main with COMMAND OPERANDS as its parameters in the
+          background, ignoring its output, and go on at once.  Any such
+          program still running when the test ends is killed.
+   W NAME
+          Wait for a file named NAME to exist, reporting an error if it does
+          not within the timeout.
+   J      Wait for the programs started by & to finish, reporting an error
+          if they do not within the timeout.
    = NAME F
           Check that the file named NAME is identical to src/F, and report an
           error if not.
@@ -140,6 +151,7 @@ def doDelete(name, dir):
 def doCopy(dest, src, dir):
     try:
         doDelete(dest, dir)
+        makedirs(dirname(join(dir, dest)), exist_ok=True)
         copyfile(join(src_dir, src), join(dir, dest))
     except OSError:
         raise ValueError("file {} could not be copied to {}".format(src, dest))
@@ -161,6 +173,18 @@ def doExecute(cmnd, dir, timeout):
     finally:
         chdir(here)
 
+def doStart(cmnd, dir):
+    return Popen("{} {}".format(GITLET_COMMAND, cmnd), shell=True, cwd=dir,
+                 stdin=DEVNULL, stdout=DEVNULL, stderr=DEVNULL)
+
+def awaitFile(name, dir, timeout):
+    deadline = time() + timeout
+    while not fileExists(name, dir):
+        if time() > deadline:
+            return False
+        sleep(0.05)
+    return True
+
 def canonicalize(s):
     if s is None:
         return None
@@ -243,6 +267,7 @@ def doTest(test):
         print("Testing directory: {}".format(tmpdir))
     timeout = TIMEOUT
     defns = {}
+    background = []
 
     def do_substs(L):
         c = 0
@@ -296,6 +321,22 @@ def doTest(test):
                     timeout = float(Group(1))
                 except:
                     ValueError("bad time: {}".format(line))
+            elif Match(r'&\s*(.*)', line):
+                background.append(doStart(Group(1), cdir))
+            elif Match(r'W\s*(\S+)', line):
+                if not awaitFile(Group(1), cdir, timeout):
+                    print("ERROR (file {} never appeared)".format(Group(1)))
+                    reportDetails(test, included_files, line_num)
+                    return False
+            elif Match(r'J\s*$', line):
+                try:
+                    for proc in background:
+                        proc.wait(timeout)
+                except TimeoutExpired:
+                    print("ERROR (background command did not finish)")
+                    reportDetails(test, included_files, line_num)
+                    return False
+                background = []
             elif Match(r'\+\s*(\S+)\s+(\S+)', line):
                 doCopy(Group(1), Group(2), cdir)
             elif Match(r'-\s*(\S+)', line):
@@ -347,6 +388,10 @@ def doTest(test):
             else:
                 raise ValueError("bad test line at {}".format(line_num))
     finally:
+        for proc in background:
+            if proc.poll() is None:
+                proc.kill()
+                proc.wait()
         if not keep:
             cleanTempDir(tmpdir)
 